@@ -0,0 +1,97 @@
+package de.theoinf.rand;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One run of Algorithm A, B, C_all and C_pa. The batched variants are reported per assignment, the buffered
+ * variants reuse one result buffer like the repetition runner does.
+ * The LP solution is cached before the trial, so the algorithms using it measure the rounding only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlgorithmBenchmark {
+
+    @State(Scope.Thread)
+    public static class Seed {
+        private long seed = 42;
+        private MaxSatResult buffer;
+
+        @Setup(Level.Trial)
+        public void solveLP(FormulaState state) {
+            RandomisedMaxSATApproximationAlgorithms.solveLP(state.formula);
+            buffer = MaxSatResult.buffer(state.formula.getN());
+        }
+
+        MaxSatParameters next(FormulaState state) {
+            return new MaxSatParameters(state.formula, seed++, x -> 0.5 * x + 0.25, 0.5);
+        }
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmA(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.probabilisticRandomised(seed.next(state));
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmABuffered(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.probabilisticRandomised(seed.next(state), seed.buffer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BitSlicedEvaluator.BATCH_SIZE)
+    public MaxSatBatchResult algorithmABatch(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.probabilisticRandomisedBatch(seed.next(state));
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmB(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.randomisedRounding(seed.next(state));
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmBBuffered(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.randomisedRounding(seed.next(state), seed.buffer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BitSlicedEvaluator.BATCH_SIZE)
+    public MaxSatBatchResult algorithmBBatch(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.randomisedRoundingBatch(seed.next(state));
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmC_all(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.algorithmC_all(seed.next(state));
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmC_pa(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.algorithmC_pa(seed.next(state));
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmADerandomised(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.probabilisticDerandomised(seed.next(state));
+    }
+
+    @Benchmark
+    public MaxSatResult algorithmBDerandomised(FormulaState state, Seed seed) {
+        return RandomisedMaxSATApproximationAlgorithms.randomisedRoundingDerandomised(seed.next(state));
+    }
+}
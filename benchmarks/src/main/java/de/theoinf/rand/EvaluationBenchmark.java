@@ -0,0 +1,60 @@
+package de.theoinf.rand;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computing the satisfied weight of one assignment, one at a time and 64 at a time with the bit-sliced evaluator.
+ * Both are reported per assignment.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    @State(Scope.Thread)
+    public static class Assignments {
+        public boolean[] variables;
+        public long[] variableSlices;
+        public long[] satisfiedWeights;
+
+        @Setup(Level.Trial)
+        public void draw(FormulaState state) {
+            Random random = new Random(42);
+            variables = new boolean[state.formula.getN()];
+            variableSlices = new long[state.formula.getN()];
+            for (int i = 0; i < variables.length; ++i) {
+                variables[i] = random.nextBoolean();
+                variableSlices[i] = random.nextLong();
+            }
+            satisfiedWeights = new long[BitSlicedEvaluator.BATCH_SIZE];
+        }
+    }
+
+    @Benchmark
+    public long satisfiedWeight(FormulaState state, Assignments assignments) {
+        return RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(state.formula, assignments.variables);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BitSlicedEvaluator.BATCH_SIZE)
+    public long satisfiedWeightBitSliced(FormulaState state, Assignments assignments) {
+        return BitSlicedEvaluator.satisfiedWeights(state.formula, assignments.variableSlices,
+                assignments.satisfiedWeights);
+    }
+}
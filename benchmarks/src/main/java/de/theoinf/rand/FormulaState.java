@@ -0,0 +1,42 @@
+package de.theoinf.rand;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A random equation of the benchmarked shape. The defaults include the shapes of bigEquationK3 and bigEquationK2_4
+ * from {@link Main}.
+ */
+@State(Scope.Benchmark)
+public class FormulaState {
+    @Param({"20"})
+    public int n;
+
+    @Param({"3000"})
+    public int m;
+
+    /**
+     * The clause length, either a single value "k" or a range "kMin-kMax"
+     */
+    @Param({"3", "2-4"})
+    public String k;
+
+    public CnfFormula formula;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        formula = generate(n, m, k);
+    }
+
+    static CnfFormula generate(int n, int m, String k) {
+        int separator = k.indexOf('-');
+        if (separator < 0) {
+            return Main.generateEquation(n, m, Integer.parseInt(k));
+        }
+        return Main.generateEquation(n, m, Integer.parseInt(k.substring(0, separator)),
+                Integer.parseInt(k.substring(separator + 1)));
+    }
+}
@@ -0,0 +1,110 @@
+package de.theoinf.rand;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving the relaxed linear program: through the cache (cold and cached) and the model build and solve time
+ * of GLOP and CP-SAT on their own. The native libraries are loaded during the warm-up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LPBenchmark {
+    private static final double TIMEOUT = 5.0;
+    private static final long ACCURACY = 1000;
+
+    /**
+     * Clears the LP cache before every invocation
+     */
+    @State(Scope.Thread)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clear() {
+            RandomisedMaxSATApproximationAlgorithms.solvedEquations.clear();
+        }
+    }
+
+    /**
+     * Fills the LP cache once before the trial
+     */
+    @State(Scope.Thread)
+    public static class WarmCache {
+        @Setup(Level.Trial)
+        public void fill(FormulaState state) {
+            RandomisedMaxSATApproximationAlgorithms.solvedEquations.clear();
+            RandomisedMaxSATApproximationAlgorithms.solveLP(state.formula);
+        }
+    }
+
+    /**
+     * A freshly built GLOP model for every invocation, a model can only be solved once
+     */
+    @State(Scope.Thread)
+    public static class GlopModelState {
+        public ILPSolver.GlopModel model;
+
+        @Setup(Level.Invocation)
+        public void build(FormulaState state) {
+            model = ILPSolver.buildGlopModel(state.formula);
+        }
+    }
+
+    /**
+     * A freshly built CP-SAT model for every invocation
+     */
+    @State(Scope.Thread)
+    public static class CpSatModelState {
+        public ILPSolver.CpSatModel model;
+
+        @Setup(Level.Invocation)
+        public void build(FormulaState state) {
+            model = ILPSolver.buildCpSatModel(state.formula, ACCURACY);
+        }
+    }
+
+    @Benchmark
+    public LPSolverResult solveLPCold(FormulaState state, ColdCache cache) {
+        return RandomisedMaxSATApproximationAlgorithms.solveLP(state.formula);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public LPSolverResult solveLPCached(FormulaState state, WarmCache cache) {
+        return RandomisedMaxSATApproximationAlgorithms.solveLP(state.formula);
+    }
+
+    @Benchmark
+    public ILPSolver.GlopModel buildGlopModel(FormulaState state) {
+        return ILPSolver.buildGlopModel(state.formula);
+    }
+
+    @Benchmark
+    public LPSolverResult solveGlopModel(GlopModelState model) {
+        return ILPSolver.solve(model.model, TIMEOUT);
+    }
+
+    @Benchmark
+    public ILPSolver.CpSatModel buildCpSatModel(FormulaState state) {
+        return ILPSolver.buildCpSatModel(state.formula, ACCURACY);
+    }
+
+    @Benchmark
+    public LPSolverResult solveCpSatModel(CpSatModelState model) {
+        return ILPSolver.solve(model.model, TIMEOUT);
+    }
+}
@@ -0,0 +1,204 @@
+package de.theoinf.rand;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A histogram of long values with a bounded number of buckets.
+ * <p>
+ * Buckets are exact (width 1) as long as all values fit into {@link #MAX_BUCKETS} buckets. When the range of values
+ * grows beyond that, the bucket width is doubled and neighbouring buckets are combined, so the memory stays constant
+ * no matter how many or how spread out the values are. Histograms can be merged.
+ */
+public class AdaptiveHistogram {
+    public static final int MAX_BUCKETS = 4096;
+
+    private long[] counts = new long[0];
+    // The smallest value of bucket 0, always a multiple of the bucket width
+    private long offset;
+    // Always a power of two
+    private long width = 1;
+    private long totalCount;
+
+    /**
+     * @param value the value to add once
+     */
+    public void add(long value) {
+        add(value, 1);
+    }
+
+    /**
+     * @param value the value to add
+     * @param count how often to add the value
+     */
+    public void add(long value, long count) {
+        if (count == 0) {
+            return;
+        }
+        include(value, value, width);
+        counts[(int) ((value - offset) / width)] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Adds all values of another histogram
+     */
+    public void merge(AdaptiveHistogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        int first = 0;
+        int last = other.counts.length - 1;
+        while (other.counts[first] == 0) {
+            ++first;
+        }
+        while (other.counts[last] == 0) {
+            --last;
+        }
+        include(other.getBucketStart(first), other.getBucketStart(last) + other.width - 1, other.width);
+        for (int i = first; i <= last; ++i) {
+            if (other.counts[i] != 0) {
+                counts[(int) ((other.getBucketStart(i) - offset) / width)] += other.counts[i];
+            }
+        }
+        totalCount += other.totalCount;
+    }
+
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    public long getBucketWidth() {
+        return width;
+    }
+
+    /**
+     * @return the smallest value of the bucket
+     */
+    public long getBucketStart(int bucket) {
+        return offset + bucket * width;
+    }
+
+    /**
+     * @return how many values fall into the bucket
+     */
+    public long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @param quantile the quantile in [0,1], e.g. 0.5 for the median
+     * @return the smallest value of the bucket that contains the quantile
+     */
+    public long getQuantile(double quantile) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return getBucketStart(i);
+            }
+        }
+        return getBucketStart(Math.max(0, counts.length - 1));
+    }
+
+    /**
+     * Grows the buckets so the values min..max fall into them and the buckets are at least minWidth wide
+     */
+    private void include(long min, long max, long minWidth) {
+        long newWidth = Math.max(width, minWidth);
+        if (newWidth == width && counts.length > 0 && min >= offset && max < offset + counts.length * width) {
+            return;
+        }
+        long low = min;
+        long high = max;
+        if (totalCount > 0) {
+            // Only the used buckets count, the spare ones at the end can be dropped
+            int last = counts.length - 1;
+            while (counts[last] == 0) {
+                --last;
+            }
+            low = Math.min(low, offset);
+            high = Math.max(high, getBucketStart(last) + width - 1);
+        }
+        while (Math.floorDiv(high, newWidth) - Math.floorDiv(low, newWidth) + 1 > MAX_BUCKETS) {
+            newWidth *= 2;
+        }
+        long newOffset = Math.floorDiv(low, newWidth) * newWidth;
+        int needed = (int) (Math.floorDiv(high, newWidth) - Math.floorDiv(low, newWidth) + 1);
+        // Leave room to grow, so adding increasing values doesn't copy the buckets every time
+        int length = Math.min(MAX_BUCKETS, Math.max(needed, 2 * counts.length));
+
+        // Old buckets are aligned to the old width, so each one falls completely into one new bucket
+        long[] newCounts = new long[length];
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] != 0) {
+                newCounts[(int) ((getBucketStart(i) - newOffset) / newWidth)] += counts[i];
+            }
+        }
+        counts = newCounts;
+        offset = newOffset;
+        width = newWidth;
+    }
+
+    /**
+     * Writes the used buckets, see {@link #read(DataInput)}
+     */
+    void write(DataOutput output) throws IOException {
+        int first = 0;
+        int last = -1;
+        if (totalCount > 0) {
+            last = counts.length - 1;
+            while (counts[first] == 0) {
+                ++first;
+            }
+            while (counts[last] == 0) {
+                --last;
+            }
+        }
+        output.writeLong(getBucketStart(first));
+        output.writeLong(width);
+        output.writeInt(last - first + 1);
+        for (int i = first; i <= last; ++i) {
+            output.writeLong(counts[i]);
+        }
+    }
+
+    /**
+     * @throws IOException if the input ends early or doesn't contain a valid histogram
+     */
+    static AdaptiveHistogram read(DataInput input) throws IOException {
+        var histogram = new AdaptiveHistogram();
+        long offset = input.readLong();
+        long width = input.readLong();
+        int buckets = input.readInt();
+        if (width < 1 || Long.bitCount(width) != 1 || Math.floorMod(offset, width) != 0
+                || buckets < 0 || buckets > MAX_BUCKETS) {
+            throw new IOException("Invalid histogram with offset " + offset + ", width " + width
+                    + " and " + buckets + " buckets");
+        }
+        histogram.counts = new long[buckets];
+        histogram.offset = offset;
+        histogram.width = width;
+        for (int i = 0; i < buckets; ++i) {
+            long count = input.readLong();
+            if (count < 0) {
+                throw new IOException("Invalid histogram count " + count);
+            }
+            histogram.counts[i] = count;
+            histogram.totalCount += count;
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveHistogram{offset=" + offset + ", width=" + width + ", counts=" + Arrays.toString(counts) + "}";
+    }
+}
@@ -0,0 +1,117 @@
+package de.theoinf.rand;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates 64 variable assignments at once.
+ * The assignments are stored as bit-slices: bit s of variableSlices[i] is the value of x(i+1) in assignment s.
+ * A clause is checked for all 64 assignments with one AND-NOT per literal, and the per-assignment number of true
+ * clauses is accumulated in bit-sliced counters (one long per counter bit), so no per-assignment loop is needed
+ * until the very end. Weighted equations subtract the weights of the false clauses per assignment instead.
+ */
+public class BitSlicedEvaluator {
+    /**
+     * The number of assignments evaluated in one pass
+     */
+    public static final int BATCH_SIZE = Long.SIZE;
+
+    /**
+     * Computes the satisfied weight of 64 variable assignments
+     *
+     * @param formula          the equation to check
+     * @param variableSlices   the variable assignments, bit s of variableSlices[i] is the value of x(i+1) in assignment s
+     * @param satisfiedWeights output array of length 64 that receives the satisfied weight of each assignment
+     * @return the total satisfied weight of all 64 assignments
+     */
+    public static long satisfiedWeights(CnfFormula formula, long[] variableSlices, long[] satisfiedWeights) {
+        return formula.isWeighted()
+                ? weightedSatisfiedWeights(formula, variableSlices, satisfiedWeights)
+                : countTrueClauses(formula, variableSlices, satisfiedWeights);
+    }
+
+    private static long countTrueClauses(CnfFormula formula, long[] variableSlices, long[] trueClauses) {
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        int m = formula.getM();
+
+        // counterBits[p] holds bit p of the true clause counter of every assignment
+        long[] counterBits = new long[Integer.SIZE - Integer.numberOfLeadingZeros(m)];
+        long totalTrueClauses = 0;
+        for (int j = 0; j < m; ++j) {
+            long satisfied = ~unsatisfied(clauseOffsets, literals, variableSlices, j);
+            totalTrueClauses += Long.bitCount(satisfied);
+
+            // Ripple-carry add of the satisfied bits to the bit-sliced counters
+            long carry = satisfied;
+            for (int p = 0; carry != 0; ++p) {
+                long nextCarry = counterBits[p] & carry;
+                counterBits[p] ^= carry;
+                carry = nextCarry;
+            }
+        }
+
+        for (int s = 0; s < BATCH_SIZE; ++s) {
+            long count = 0;
+            for (int p = 0; p < counterBits.length; ++p) {
+                count |= ((counterBits[p] >>> s) & 1L) << p;
+            }
+            trueClauses[s] = count;
+        }
+        return totalTrueClauses;
+    }
+
+    /**
+     * Weights don't fit into bit-sliced counters, but most clauses are true for most assignments.
+     * So the weights of the few false clauses are subtracted from the total weight of every assignment.
+     */
+    private static long weightedSatisfiedWeights(CnfFormula formula, long[] variableSlices, long[] satisfiedWeights) {
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        long[] weights = formula.getEffectiveWeights();
+        long totalWeight = formula.getTotalWeight();
+        int m = formula.getM();
+
+        Arrays.fill(satisfiedWeights, 0, BATCH_SIZE, totalWeight);
+        for (int j = 0; j < m; ++j) {
+            long unsatisfied = unsatisfied(clauseOffsets, literals, variableSlices, j);
+            while (unsatisfied != 0) {
+                satisfiedWeights[Long.numberOfTrailingZeros(unsatisfied)] -= weights[j];
+                unsatisfied &= unsatisfied - 1;
+            }
+        }
+
+        long total = 0;
+        for (int s = 0; s < BATCH_SIZE; ++s) {
+            total += satisfiedWeights[s];
+        }
+        return total;
+    }
+
+    /**
+     * @return a mask of the assignments for which clause j is false
+     */
+    private static long unsatisfied(int[] clauseOffsets, int[] literals, long[] variableSlices, int j) {
+        long unsatisfied = -1L;
+        for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1] && unsatisfied != 0; ++i) {
+            int literal = literals[i];
+            // (literal & 1) - 1 is all ones for x and zero for !x, so the slice is inverted for positive literals
+            unsatisfied &= variableSlices[CnfFormula.variableOf(literal)] ^ ((literal & 1) - 1);
+        }
+        return unsatisfied;
+    }
+
+    /**
+     * Extracts a single assignment from bit-slices
+     *
+     * @param variableSlices the variable assignments, bit s of variableSlices[i] is the value of x(i+1) in assignment s
+     * @param sample         the index s of the assignment to extract
+     * @return the packed variable assignment for x1...xn, see {@link MaxSatResult#getWords()}
+     */
+    public static long[] extractAssignment(long[] variableSlices, int sample) {
+        long[] words = new long[MaxSatResult.wordCount(variableSlices.length)];
+        for (int i = 0; i < variableSlices.length; ++i) {
+            words[i >>> 6] |= ((variableSlices[i] >>> sample) & 1L) << i;
+        }
+        return words;
+    }
+}
@@ -0,0 +1,388 @@
+package de.theoinf.rand;
+
+import java.util.Arrays;
+
+/**
+ * An (n,m)-equation in conjunctive normal form stored in a flat, primitive layout.
+ * All literals of all clauses are stored in one int array. The literals of clause j are found at the indices
+ * clauseOffsets[j] (inclusive) to clauseOffsets[j + 1] (exclusive) (CSR layout).
+ * <p>
+ * Literals are stored pre-decoded: the variable index (0-based) is stored in the upper 31 bits and the sign
+ * in the lowest bit (1 == negated). This way evaluating a literal needs neither unboxing nor Math.abs.
+ * <p>
+ * Clauses can have weights. Hard clauses ({@link #HARD}) are evaluated with a weight one higher than the total weight
+ * of all soft clauses, so maximizing the satisfied weight satisfies as many hard clauses as possible first, and the
+ * satisfied weight can be split into satisfied hard clauses and satisfied soft weight again.
+ */
+public class CnfFormula {
+    /**
+     * The weight of hard clauses in the weight array
+     */
+    public static final long HARD = -1;
+
+    private final int n;
+    private final int[] clauseOffsets;
+    private final int[] literals;
+    private final long[] weights;
+    private final long[] effectiveWeights;
+    private final long totalSoftWeight;
+    private final int hardClauseCount;
+    private volatile FormulaDigest digest;
+    private volatile int[][] occurrenceLists;
+
+    /**
+     * @param n             the number of variables x1...xn
+     * @param clauseOffsets the start index of each clause in literals, followed by literals.length (length m + 1)
+     * @param literals      the encoded literals of all clauses (see {@link #encode(int, boolean)})
+     */
+    public CnfFormula(int n, int[] clauseOffsets, int[] literals) {
+        this(n, clauseOffsets, literals, null);
+    }
+
+    /**
+     * @param n             the number of variables x1...xn
+     * @param clauseOffsets the start index of each clause in literals, followed by literals.length (length m + 1)
+     * @param literals      the encoded literals of all clauses (see {@link #encode(int, boolean)})
+     * @param weights       the non-negative weight of each clause or {@link #HARD}, null if every clause has weight 1
+     */
+    public CnfFormula(int n, int[] clauseOffsets, int[] literals, long[] weights) {
+        if (clauseOffsets.length == 0 || clauseOffsets[0] != 0
+                || clauseOffsets[clauseOffsets.length - 1] != literals.length) {
+            throw new IllegalArgumentException("Clause offsets don't match the literal array");
+        }
+        this.n = n;
+        this.clauseOffsets = clauseOffsets;
+        this.literals = literals;
+        this.weights = weights;
+
+        if (weights == null) {
+            this.effectiveWeights = null;
+            this.totalSoftWeight = getM();
+            this.hardClauseCount = 0;
+            return;
+        }
+        if (weights.length != getM()) {
+            throw new IllegalArgumentException("Expected " + getM() + " weights but got " + weights.length);
+        }
+        long softWeight = 0;
+        int hardClauses = 0;
+        for (long weight : weights) {
+            if (weight == HARD) {
+                ++hardClauses;
+            } else if (weight >= 0) {
+                softWeight = Math.addExact(softWeight, weight);
+            } else {
+                throw new IllegalArgumentException("Invalid clause weight " + weight);
+            }
+        }
+        long hardWeight = softWeight + 1;
+        try {
+            Math.addExact(Math.multiplyExact(hardWeight, (long) hardClauses), softWeight);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The total clause weight is too large", e);
+        }
+        this.totalSoftWeight = softWeight;
+        this.hardClauseCount = hardClauses;
+        this.effectiveWeights = new long[weights.length];
+        for (int j = 0; j < weights.length; ++j) {
+            effectiveWeights[j] = weights[j] == HARD ? hardWeight : weights[j];
+        }
+    }
+
+    /**
+     * Adapter for equations in the old Integer[][] representation. The number of variables is the highest
+     * variable index used in the equation.
+     *
+     * @param equation an (m,n) equation in KNF, e.g. {{1, -2}, {2, 3}} == (x1 v !x2) ^ (x2 v x3)
+     */
+    public static CnfFormula fromEquation(Integer[][] equation) {
+        int n = Arrays.stream(equation)
+                .flatMap(Arrays::stream)
+                .mapToInt(Math::abs)
+                .max().orElse(0);
+        return fromEquation(equation, n);
+    }
+
+    /**
+     * Adapter for equations in the old Integer[][] representation.
+     *
+     * @param equation an (m,n) equation in KNF, e.g. {{1, -2}, {2, 3}} == (x1 v !x2) ^ (x2 v x3)
+     * @param n        the number of variables x1...xn
+     */
+    public static CnfFormula fromEquation(Integer[][] equation, int n) {
+        int[] clauseOffsets = new int[equation.length + 1];
+        for (int j = 0; j < equation.length; ++j) {
+            clauseOffsets[j + 1] = clauseOffsets[j] + equation[j].length;
+        }
+        int[] literals = new int[clauseOffsets[equation.length]];
+        int position = 0;
+        for (var clause : equation) {
+            for (Integer literal : clause) {
+                if (literal == 0 || Math.abs(literal) > n) {
+                    throw new IllegalArgumentException("Invalid literal " + literal + " for n = " + n);
+                }
+                literals[position++] = encode(literal);
+            }
+        }
+        return new CnfFormula(n, clauseOffsets, literals);
+    }
+
+    /**
+     * Converts this formula back to the old Integer[][] representation. Weights are dropped.
+     */
+    public Integer[][] toEquation() {
+        Integer[][] equation = new Integer[getM()][];
+        for (int j = 0; j < equation.length; ++j) {
+            equation[j] = new Integer[clauseLength(j)];
+            for (int i = 0; i < equation[j].length; ++i) {
+                equation[j][i] = literal(clauseOffsets[j] + i);
+            }
+        }
+        return equation;
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Literal encoding
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * @param variableIndex the 0-based index of the variable (x1 == 0)
+     * @param negated       true for !xi
+     * @return the encoded literal
+     */
+    public static int encode(int variableIndex, boolean negated) {
+        return (variableIndex << 1) | (negated ? 1 : 0);
+    }
+
+    /**
+     * @param literal a literal in the Integer[][] notation (x1 == 1, !x1 == -1)
+     * @return the encoded literal
+     */
+    public static int encode(int literal) {
+        return encode(Math.abs(literal) - 1, literal < 0);
+    }
+
+    /**
+     * @return the 0-based variable index of an encoded literal
+     */
+    public static int variableOf(int encodedLiteral) {
+        return encodedLiteral >>> 1;
+    }
+
+    /**
+     * @return true if the encoded literal is negated
+     */
+    public static boolean isNegated(int encodedLiteral) {
+        return (encodedLiteral & 1) != 0;
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Accessors
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of variables x1...xn
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * @return the number of clauses
+     */
+    public int getM() {
+        return clauseOffsets.length - 1;
+    }
+
+    /**
+     * @return the total number of literals of all clauses
+     */
+    public int getLiteralCount() {
+        return literals.length;
+    }
+
+    /**
+     * Direct access to the clause offsets for hot loops. Must not be modified.
+     */
+    public int[] getClauseOffsets() {
+        return clauseOffsets;
+    }
+
+    /**
+     * Direct access to the encoded literals for hot loops. Must not be modified.
+     */
+    public int[] getLiterals() {
+        return literals;
+    }
+
+    public int clauseStart(int clause) {
+        return clauseOffsets[clause];
+    }
+
+    public int clauseEnd(int clause) {
+        return clauseOffsets[clause + 1];
+    }
+
+    public int clauseLength(int clause) {
+        return clauseOffsets[clause + 1] - clauseOffsets[clause];
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Weights
+    // -------------------------------------------------------------------------------------
+
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    /**
+     * @return the weight of each clause or {@link #HARD}, null if every clause has weight 1. Must not be modified.
+     */
+    public long[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Direct access to the weights for hot loops, with hard clauses weighted by {@link #getHardWeight()}.
+     * Must not be modified.
+     *
+     * @return the weight each clause is evaluated with, null if every clause has weight 1
+     */
+    public long[] getEffectiveWeights() {
+        return effectiveWeights;
+    }
+
+    /**
+     * @return the weight clause j is evaluated with
+     */
+    public long weight(int clause) {
+        return effectiveWeights == null ? 1 : effectiveWeights[clause];
+    }
+
+    public boolean isHard(int clause) {
+        return weights != null && weights[clause] == HARD;
+    }
+
+    public int getHardClauseCount() {
+        return hardClauseCount;
+    }
+
+    /**
+     * @return the sum of the weights of all soft clauses
+     */
+    public long getTotalSoftWeight() {
+        return totalSoftWeight;
+    }
+
+    /**
+     * @return the weight hard clauses are evaluated with, one more than the total soft weight
+     */
+    public long getHardWeight() {
+        return totalSoftWeight + 1;
+    }
+
+    /**
+     * @return the satisfied weight if all clauses are true
+     */
+    public long getTotalWeight() {
+        return getHardWeight() * hardClauseCount + totalSoftWeight;
+    }
+
+    /**
+     * @param satisfiedWeight a satisfied weight of this formula
+     * @return the part of the satisfied weight that comes from soft clauses
+     */
+    public long softWeightOf(long satisfiedWeight) {
+        return hardClauseCount == 0 ? satisfiedWeight : satisfiedWeight % getHardWeight();
+    }
+
+    /**
+     * @param satisfiedWeight a satisfied weight of this formula
+     * @return the number of hard clauses that are false
+     */
+    public int falseHardClausesOf(long satisfiedWeight) {
+        return hardClauseCount == 0 ? 0 : hardClauseCount - (int) (satisfiedWeight / getHardWeight());
+    }
+
+    /**
+     * @return the SHA-256 digest of this equation. Computed on first use.
+     */
+    public FormulaDigest digest() {
+        FormulaDigest result = digest;
+        if (result == null) {
+            result = FormulaDigest.of(this);
+            digest = result;
+        }
+        return result;
+    }
+
+    /**
+     * Occurrence lists of all variables in CSR layout. The occurrences of variable i are found at the indices
+     * getOccurrenceOffsets()[i] (inclusive) to getOccurrenceOffsets()[i + 1] (exclusive) of {@link #getOccurrences()}.
+     * Computed on first use. Must not be modified.
+     *
+     * @return the start index of the occurrences of each variable, followed by the total number of occurrences
+     */
+    public int[] getOccurrenceOffsets() {
+        return occurrenceLists()[0];
+    }
+
+    /**
+     * Every occurrence is encoded like a literal: the clause index is stored in the upper 31 bits and the sign of the
+     * literal in the lowest bit (1 == negated). Computed on first use. Must not be modified.
+     *
+     * @return the occurrences of all variables, ordered by variable and clause
+     */
+    public int[] getOccurrences() {
+        return occurrenceLists()[1];
+    }
+
+    private int[][] occurrenceLists() {
+        int[][] result = occurrenceLists;
+        if (result == null) {
+            int[] occurrenceOffsets = new int[n + 1];
+            for (int literal : literals) {
+                ++occurrenceOffsets[variableOf(literal) + 1];
+            }
+            for (int i = 0; i < n; ++i) {
+                occurrenceOffsets[i + 1] += occurrenceOffsets[i];
+            }
+            int[] nextPosition = Arrays.copyOf(occurrenceOffsets, n);
+            int[] occurrences = new int[literals.length];
+            for (int j = 0; j < getM(); ++j) {
+                for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                    int literal = literals[i];
+                    occurrences[nextPosition[variableOf(literal)]++] = (j << 1) | (literal & 1);
+                }
+            }
+            result = new int[][]{occurrenceOffsets, occurrences};
+            occurrenceLists = result;
+        }
+        return result;
+    }
+
+    public int maxClauseLength() {
+        int max = 0;
+        for (int j = 0; j < getM(); ++j) {
+            max = Math.max(max, clauseLength(j));
+        }
+        return max;
+    }
+
+    /**
+     * @param position the index of the literal in the literal array
+     * @return the 0-based variable index of the literal
+     */
+    public int variable(int position) {
+        return variableOf(literals[position]);
+    }
+
+    /**
+     * @param position the index of the literal in the literal array
+     * @return the literal in the Integer[][] notation (x1 == 1, !x1 == -1)
+     */
+    public int literal(int position) {
+        int variable = variable(position) + 1;
+        return isNegated(literals[position]) ? -variable : variable;
+    }
+}
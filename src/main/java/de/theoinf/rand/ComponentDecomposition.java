@@ -0,0 +1,277 @@
+package de.theoinf.rand;
+
+import com.google.ortools.sat.CpSolverStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Splits an equation into variable-disjoint sub-equations: two variables belong to the same component if they are
+ * connected through clauses. The components are found with a union-find over the variables of every clause.
+ * <p>
+ * Components can be solved independently and in parallel, and each component has its own digest, so its solution
+ * is cached on its own. Clauses without literals are never true and are added to the first component, just like
+ * variables that don't appear in any clause.
+ * Hard clauses keep their meaning in every component, see {@link #originalWeight(long[])} for combining the
+ * satisfied weights.
+ */
+public class ComponentDecomposition {
+    private final CnfFormula formula;
+    private final List<Component> components;
+
+    /**
+     * A variable-disjoint part of the equation
+     */
+    public static final class Component {
+        private final CnfFormula formula;
+        private final int[] variables;
+        private final int[] clauses;
+
+        private Component(CnfFormula formula, int[] variables, int[] clauses) {
+            this.formula = formula;
+            this.variables = variables;
+            this.clauses = clauses;
+        }
+
+        /**
+         * @return the component as an equation of its own, with the variables renumbered
+         */
+        public CnfFormula getFormula() {
+            return formula;
+        }
+
+        /**
+         * @param assignment an assignment of all variables of the original equation
+         * @return the assignment of the variables of the component
+         */
+        public boolean[] project(boolean[] assignment) {
+            boolean[] projected = new boolean[variables.length];
+            for (int i = 0; i < variables.length; ++i) {
+                projected[i] = assignment[variables[i]];
+            }
+            return projected;
+        }
+    }
+
+    private ComponentDecomposition(CnfFormula formula, List<Component> components) {
+        this.formula = formula;
+        this.components = components;
+    }
+
+    /**
+     * @param formula the equation to split
+     * @return the components, ordered by their smallest variable
+     */
+    public static ComponentDecomposition decompose(CnfFormula formula) {
+        int n = formula.getN();
+        int m = formula.getM();
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+
+        int[] parents = new int[n];
+        for (int i = 0; i < n; ++i) {
+            parents[i] = i;
+        }
+        for (int j = 0; j < m; ++j) {
+            for (int i = clauseOffsets[j] + 1; i < clauseOffsets[j + 1]; ++i) {
+                union(parents, CnfFormula.variableOf(literals[clauseOffsets[j]]), CnfFormula.variableOf(literals[i]));
+            }
+        }
+        int[] occurrenceOffsets = formula.getOccurrenceOffsets();
+        for (int i = 1; i < n; ++i) {
+            if (occurrenceOffsets[i] == occurrenceOffsets[i + 1]) {
+                union(parents, 0, i);
+            }
+        }
+
+        // Number the components by their smallest variable and every variable within its component
+        int[] componentOf = new int[n];
+        int[] localIndex = new int[n];
+        int[] variableCounts = new int[n];
+        int componentCount = 0;
+        for (int i = 0; i < n; ++i) {
+            int root = find(parents, i);
+            if (root == i) {
+                componentOf[i] = componentCount++;
+            }
+            componentOf[i] = componentOf[root];
+            localIndex[i] = variableCounts[componentOf[i]]++;
+        }
+        if (componentCount <= 1) {
+            int[] variables = IntStream.range(0, n).toArray();
+            int[] clauses = IntStream.range(0, m).toArray();
+            return new ComponentDecomposition(formula, List.of(new Component(formula, variables, clauses)));
+        }
+
+        int[] clauseCounts = new int[componentCount];
+        int[] literalCounts = new int[componentCount];
+        int[] clauseComponents = new int[m];
+        for (int j = 0; j < m; ++j) {
+            int component = clauseOffsets[j] == clauseOffsets[j + 1]
+                    ? 0 : componentOf[CnfFormula.variableOf(literals[clauseOffsets[j]])];
+            clauseComponents[j] = component;
+            ++clauseCounts[component];
+            literalCounts[component] += clauseOffsets[j + 1] - clauseOffsets[j];
+        }
+
+        int[][] variables = new int[componentCount][];
+        int[][] clauses = new int[componentCount][];
+        int[][] offsets = new int[componentCount][];
+        int[][] componentLiterals = new int[componentCount][];
+        long[][] weights = new long[componentCount][];
+        for (int c = 0; c < componentCount; ++c) {
+            variables[c] = new int[variableCounts[c]];
+            clauses[c] = new int[clauseCounts[c]];
+            offsets[c] = new int[clauseCounts[c] + 1];
+            componentLiterals[c] = new int[literalCounts[c]];
+            weights[c] = formula.isWeighted() ? new long[clauseCounts[c]] : null;
+        }
+        for (int i = 0; i < n; ++i) {
+            variables[componentOf[i]][localIndex[i]] = i;
+        }
+        int[] nextClause = new int[componentCount];
+        for (int j = 0; j < m; ++j) {
+            int c = clauseComponents[j];
+            int clause = nextClause[c]++;
+            int position = offsets[c][clause];
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                int literal = literals[i];
+                componentLiterals[c][position++] = CnfFormula.encode(localIndex[CnfFormula.variableOf(literal)],
+                        CnfFormula.isNegated(literal));
+            }
+            offsets[c][clause + 1] = position;
+            clauses[c][clause] = j;
+            if (weights[c] != null) {
+                weights[c][clause] = formula.getWeights()[j];
+            }
+        }
+
+        var components = new ArrayList<Component>(componentCount);
+        for (int c = 0; c < componentCount; ++c) {
+            var componentFormula = new CnfFormula(variables[c].length, offsets[c], componentLiterals[c], weights[c]);
+            components.add(new Component(componentFormula, variables[c], clauses[c]));
+        }
+        return new ComponentDecomposition(formula, Collections.unmodifiableList(components));
+    }
+
+    public List<Component> getComponents() {
+        return components;
+    }
+
+    public int size() {
+        return components.size();
+    }
+
+    /**
+     * Solves every component on its own, in parallel, and combines the results
+     *
+     * @param solver solves a component, e.g. with GLOP or CP-SAT
+     * @return the combined x- and z-values of the original equation. The status is the worst status of all
+     * components and the duality gap the largest gap of a component.
+     */
+    public LPSolverResult solve(Function<Component, LPSolverResult> solver) {
+        if (components.size() == 1) {
+            return solver.apply(components.get(0));
+        }
+        LPSolverResult[] results = components.parallelStream().map(solver).toArray(LPSolverResult[]::new);
+
+        var result = new LPSolverResult();
+        result.status = CpSolverStatus.OPTIMAL;
+        result.dualityGap = 0.0;
+        result.xValues = new double[formula.getN()];
+        result.zValues = new double[formula.getM()];
+        for (int c = 0; c < results.length; ++c) {
+            Component component = components.get(c);
+            LPSolverResult componentResult = results[c];
+            result.status = worse(result.status, componentResult.status);
+            // NaN if any component has no gap
+            result.dualityGap = Double.isNaN(componentResult.dualityGap)
+                    ? Double.NaN : Math.max(result.dualityGap, componentResult.dualityGap);
+            for (int i = 0; i < componentResult.xValues.length; ++i) {
+                result.xValues[component.variables[i]] = componentResult.xValues[i];
+            }
+            for (int j = 0; j < componentResult.zValues.length; ++j) {
+                result.zValues[component.clauses[j]] = componentResult.zValues[j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Combines the assignments of all components
+     *
+     * @param results one result per component, in the order of {@link #getComponents()}
+     * @return the assignment and satisfied weight of the original equation
+     */
+    public MaxSatResult combine(MaxSatResult[] results) {
+        if (results.length != components.size()) {
+            throw new IllegalArgumentException("Expected " + components.size() + " results but got " + results.length);
+        }
+        boolean[] assignment = new boolean[formula.getN()];
+        long[] satisfiedWeights = new long[results.length];
+        for (int c = 0; c < results.length; ++c) {
+            int[] variables = components.get(c).variables;
+            for (int i = 0; i < variables.length; ++i) {
+                assignment[variables[i]] = results[c].getValue(i);
+            }
+            satisfiedWeights[c] = results[c].getSatisfiedWeight();
+        }
+        return new MaxSatResult(originalWeight(satisfiedWeights), assignment);
+    }
+
+    /**
+     * The components weight hard clauses by their own soft weight, so their satisfied weights are combined from
+     * the soft weights and the false hard clauses of each component
+     *
+     * @param satisfiedWeights the satisfied weight of every component
+     * @return the satisfied weight in the original equation
+     */
+    public long originalWeight(long[] satisfiedWeights) {
+        long softWeight = 0;
+        long falseHardClauses = 0;
+        for (int c = 0; c < satisfiedWeights.length; ++c) {
+            CnfFormula component = components.get(c).formula;
+            softWeight += component.softWeightOf(satisfiedWeights[c]);
+            falseHardClauses += component.falseHardClausesOf(satisfiedWeights[c]);
+        }
+        return formula.getHardWeight() * (formula.getHardClauseCount() - falseHardClauses) + softWeight;
+    }
+
+    private static CpSolverStatus worse(CpSolverStatus a, CpSolverStatus b) {
+        return severity(a) >= severity(b) ? a : b;
+    }
+
+    private static int severity(CpSolverStatus status) {
+        if (status == CpSolverStatus.OPTIMAL) {
+            return 0;
+        } else if (status == CpSolverStatus.FEASIBLE) {
+            return 1;
+        } else if (status == CpSolverStatus.INFEASIBLE) {
+            return 3;
+        }
+        return 2;
+    }
+
+    private static int find(int[] parents, int variable) {
+        while (parents[variable] != variable) {
+            // Path halving
+            parents[variable] = parents[parents[variable]];
+            variable = parents[variable];
+        }
+        return variable;
+    }
+
+    private static void union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        // The smaller variable becomes the root, so every root is the smallest variable of its component
+        if (rootA < rootB) {
+            parents[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parents[rootA] = rootB;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package de.theoinf.rand;
+
+import java.util.Arrays;
+
+/**
+ * Derandomisation by the method of conditional expectations.
+ * <p>
+ * Every variable xi is TRUE with probability p(i). The variables are fixed one after another to the value that
+ * doesn't decrease the expected satisfied weight, so the result has at least the satisfied weight the
+ * randomised algorithm has in expectation (e.g. >= 1/2 * m for p(i) = 1/2 and unweighted clauses).
+ * <p>
+ * For every clause the product of the probabilities that its unfixed literals are FALSE is kept up to date through
+ * the occurrence lists of the variables, so fixing all variables costs O(total number of literals).
+ * Factors that are zero are counted instead of multiplied, so they can be removed from the product again.
+ * A literal that is repeated in a clause only counts once, and a clause that contains a variable and its negation
+ * is TRUE for every assignment.
+ */
+public class ConditionalExpectation {
+
+    /**
+     * @param formula       the equation to solve
+     * @param probabilities the probability of each variable xi to be TRUE
+     * @return a MaxSatResult with the satisfied weight and the variable assignment
+     */
+    public static MaxSatResult fixVariables(CnfFormula formula, double[] probabilities) {
+        int m = formula.getM();
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        int[] occurrenceOffsets = formula.getOccurrenceOffsets();
+        int[] occurrences = formula.getOccurrences();
+        long[] weights = formula.getEffectiveWeights();
+
+        // Probability that all unfixed literals of a clause are FALSE, without the zero factors
+        double[] unsatisfiedProduct = new double[m];
+        int[] zeroFactors = new int[m];
+        boolean[] satisfied = new boolean[m];
+        long satisfiedWeight = 0;
+        // The last clause each variable was seen in and its literal there, to find repeated variables
+        int[] seenInClause = new int[formula.getN()];
+        Arrays.fill(seenInClause, -1);
+        int[] seenLiteral = new int[formula.getN()];
+        for (int j = 0; j < m; ++j) {
+            double product = 1.0;
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                int variable = CnfFormula.variableOf(literals[i]);
+                if (seenInClause[variable] == j) {
+                    if (seenLiteral[variable] != literals[i]) {
+                        satisfied[j] = true;
+                    }
+                    continue;
+                }
+                seenInClause[variable] = j;
+                seenLiteral[variable] = literals[i];
+                double factor = falseProbability(literals[i], probabilities);
+                if (factor == 0.0) {
+                    ++zeroFactors[j];
+                } else {
+                    product *= factor;
+                }
+            }
+            unsatisfiedProduct[j] = product;
+            if (satisfied[j]) {
+                satisfiedWeight += weights == null ? 1 : weights[j];
+            }
+        }
+
+        boolean[] variables = new boolean[formula.getN()];
+        for (int v = 0; v < variables.length; ++v) {
+            double p = probabilities[v];
+
+            // E[satisfied weight | xv = TRUE] - E[satisfied weight | xv = FALSE]
+            double gain = 0.0;
+            for (int o = occurrenceOffsets[v]; o < occurrenceOffsets[v + 1]; ++o) {
+                int clause = occurrences[o] >>> 1;
+                // Repeated occurrences of a variable in a clause are next to each other
+                if (satisfied[clause] || isRepeated(occurrences, occurrenceOffsets[v], o)) {
+                    continue;
+                }
+                boolean negated = (occurrences[o] & 1) != 0;
+                double othersFalse = othersFalseProbability(unsatisfiedProduct[clause], zeroFactors[clause],
+                        negated ? p : 1.0 - p);
+                // The clause is TRUE for sure if the literal is TRUE, otherwise it is TRUE with 1 - othersFalse
+                double weightedOthersFalse = weights == null ? othersFalse : weights[clause] * othersFalse;
+                gain += negated ? -weightedOthersFalse : weightedOthersFalse;
+            }
+            boolean value = gain > 0.0 || (gain == 0.0 && p >= 0.5);
+            variables[v] = value;
+
+            for (int o = occurrenceOffsets[v]; o < occurrenceOffsets[v + 1]; ++o) {
+                int clause = occurrences[o] >>> 1;
+                // Repeated occurrences of a variable in a clause are next to each other
+                if (satisfied[clause] || isRepeated(occurrences, occurrenceOffsets[v], o)) {
+                    continue;
+                }
+                boolean negated = (occurrences[o] & 1) != 0;
+                if (value != negated) {
+                    satisfied[clause] = true;
+                    satisfiedWeight += weights == null ? 1 : weights[clause];
+                } else {
+                    // The literal is FALSE for sure, so its factor becomes 1
+                    double factor = negated ? p : 1.0 - p;
+                    if (factor == 0.0) {
+                        --zeroFactors[clause];
+                    } else {
+                        unsatisfiedProduct[clause] /= factor;
+                    }
+                }
+            }
+        }
+
+        return new MaxSatResult(satisfiedWeight, variables);
+    }
+
+    /**
+     * @return true if the occurrence at o is in the same clause as the one before it
+     */
+    private static boolean isRepeated(int[] occurrences, int first, int o) {
+        return o > first && occurrences[o] >>> 1 == occurrences[o - 1] >>> 1;
+    }
+
+    private static double falseProbability(int literal, double[] probabilities) {
+        double p = probabilities[CnfFormula.variableOf(literal)];
+        return CnfFormula.isNegated(literal) ? p : 1.0 - p;
+    }
+
+    /**
+     * @return the probability that all other unfixed literals of a clause are FALSE
+     */
+    private static double othersFalseProbability(double product, int zeroFactors, double factor) {
+        if (factor == 0.0) {
+            return zeroFactors == 1 ? product : 0.0;
+        }
+        return zeroFactors > 0 ? 0.0 : product / factor;
+    }
+}
@@ -0,0 +1,32 @@
+package de.theoinf.rand;
+
+import com.google.ortools.sat.CpSolver;
+
+/**
+ * Stops a running CP-SAT search from another thread, see
+ * {@link ILPSolver#solveCpSat(CnfFormula, long, double, int, boolean[], CpSatProgressListener, CpSatCancellation)}.
+ * A stopped search returns the best solution found so far, like a search that reached its timeout.
+ */
+public final class CpSatCancellation {
+    private CpSolver solver;
+    private boolean cancelled = false;
+
+    /**
+     * Stops the search if it is running, or makes it return immediately if it hasn't started yet
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (solver != null) {
+            solver.stopSearch();
+        }
+    }
+
+    /**
+     * @param solver the solver that is about to search, null once it is done
+     * @return false if the search was cancelled already and must not start
+     */
+    synchronized boolean attach(CpSolver solver) {
+        this.solver = solver;
+        return !cancelled;
+    }
+}
@@ -0,0 +1,17 @@
+package de.theoinf.rand;
+
+/**
+ * Receives every improving solution CP-SAT finds while it is still searching, see
+ * {@link ILPSolver#solveCpSat(CnfFormula, long, double, int, boolean[], CpSatProgressListener)}
+ */
+@FunctionalInterface
+public interface CpSatProgressListener {
+    /**
+     * Called from a solver thread, so implementations must be thread-safe and fast
+     *
+     * @param objective the soft weight of the new solution
+     * @param bound     the best proven upper bound of the soft weight
+     * @param seconds   the wall time since the start of the search
+     */
+    void onSolution(double objective, double bound, double seconds);
+}
@@ -0,0 +1,525 @@
+package de.theoinf.rand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads equations from DIMACS files. Supported formats are .cnf ("p cnf n m"), the old .wcnf format
+ * ("p wcnf n m top", every clause starts with its weight, weights >= top are hard) and the new .wcnf format without
+ * p-line (every clause starts with its weight or "h" for hard clauses). Files may be gzipped.
+ * <p>
+ * Plain files are memory-mapped and parsed byte by byte straight into the primitive arrays of a {@link CnfFormula}.
+ * Large files are split into chunks at clause boundaries. The chunks are parsed twice in parallel: the first pass
+ * counts the clauses and literals of every chunk, the second pass writes them to their final position, so no
+ * intermediate copies are needed. A chunk boundary is the start of a line following a (non-comment) line that ends
+ * with the clause terminator 0, so clauses must not be interrupted by comment lines.
+ * Gzipped files can't be mapped and are parsed sequentially while they are decompressed.
+ */
+public class DimacsLoader {
+    private static final int MIN_CHUNK_SIZE = 8 << 20;
+    private static final int MAX_CHUNK_SIZE = 256 << 20;
+    static final int WINDOW_SIZE = 1 << 20;
+    private static final int MAX_VARIABLE = 1 << 30;
+
+    /**
+     * Loads a .cnf or .wcnf file, parsing large plain files on all available processors
+     *
+     * @param file the file to load, optionally gzipped
+     * @return the loaded equation, weighted for .wcnf files
+     */
+    public static CnfFormula load(Path file) {
+        return load(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads a .cnf or .wcnf file
+     *
+     * @param file        the file to load, optionally gzipped
+     * @param parallelism the number of threads to parse plain files with
+     * @return the loaded equation, weighted for .wcnf files
+     */
+    public static CnfFormula load(Path file, int parallelism) {
+        boolean weightedByName = file.getFileName().toString().contains(".wcnf");
+        try {
+            if (isGzipped(file)) {
+                try (InputStream input = new GZIPInputStream(Files.newInputStream(file), 1 << 16)) {
+                    return loadStream(input, weightedByName);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return loadMapped(channel, weightedByName, parallelism);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load " + file, e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Failed to load " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isGzipped(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return input.read() == 0x1F && input.read() == 0x8B;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Memory-mapped parallel loading
+    // -------------------------------------------------------------------------------------
+
+    private static CnfFormula loadMapped(FileChannel channel, boolean weightedByName, int parallelism)
+            throws IOException {
+        long size = channel.size();
+        Header header = readHeader(channel, size, weightedByName);
+
+        long bodySize = size - header.bodyStart;
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, bodySize / (4L * parallelism) + 1));
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(header.bodyStart);
+        for (long offset = header.bodyStart + chunkSize; offset < size; offset += chunkSize) {
+            long boundary = findClauseBoundary(channel, Math.max(offset, boundaries.get(boundaries.size() - 1)), size);
+            if (boundary > boundaries.get(boundaries.size() - 1) && boundary < size) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(size);
+        int chunks = boundaries.size() - 1;
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            // First pass: count clauses and literals of every chunk
+            List<Callable<ChunkParser>> counters = new ArrayList<>();
+            for (int c = 0; c < chunks; ++c) {
+                long from = boundaries.get(c);
+                long to = boundaries.get(c + 1);
+                counters.add(() -> parseChunk(channel, from, to, new ChunkParser(header)));
+            }
+            List<ChunkParser> counts = invokeAll(pool, counters);
+
+            long literalCount = 0;
+            long clauseCount = 0;
+            int maxVariable = 0;
+            for (ChunkParser count : counts) {
+                literalCount += count.literalPosition;
+                clauseCount += count.clauseIndex;
+                maxVariable = Math.max(maxVariable, count.maxVariable);
+            }
+            if (literalCount >= Integer.MAX_VALUE || clauseCount >= Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many literals or clauses");
+            }
+
+            // Second pass: write every chunk to its final position
+            int[] literals = new int[(int) literalCount];
+            int[] clauseOffsets = new int[(int) clauseCount + 1];
+            long[] weights = header.weighted ? new long[(int) clauseCount] : null;
+            List<Callable<ChunkParser>> writers = new ArrayList<>();
+            int literalStart = 0;
+            int clauseStart = 0;
+            for (int c = 0; c < chunks; ++c) {
+                long from = boundaries.get(c);
+                long to = boundaries.get(c + 1);
+                var parser = new ChunkParser(header, literals, clauseOffsets, weights, literalStart, clauseStart);
+                writers.add(() -> parseChunk(channel, from, to, parser));
+                literalStart += counts.get(c).literalPosition;
+                clauseStart += counts.get(c).clauseIndex;
+            }
+            invokeAll(pool, writers);
+
+            return new CnfFormula(header.variableCount(maxVariable), clauseOffsets, literals, weights);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Header readHeader(FileChannel channel, long size, boolean weightedByName) throws IOException {
+        for (long window = WINDOW_SIZE; ; window *= 2) {
+            long windowSize = Math.min(Math.min(size, window), Integer.MAX_VALUE);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, windowSize);
+            Header header = Header.parse(buffer, (int) windowSize, windowSize == size, weightedByName);
+            if (header != null) {
+                return header;
+            } else if (windowSize == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Header too long");
+            }
+        }
+    }
+
+    private static ChunkParser parseChunk(FileChannel channel, long from, long to, ChunkParser parser)
+            throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        parser.parse(buffer, 0, (int) (to - from));
+        parser.finish();
+        return parser;
+    }
+
+    private static List<ChunkParser> invokeAll(ForkJoinPool pool, List<Callable<ChunkParser>> tasks)
+            throws IOException {
+        List<ChunkParser> results = new ArrayList<>();
+        try {
+            for (Future<ChunkParser> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Finds the first line start at or after offset that follows a line ending with the clause terminator 0
+     *
+     * @return the boundary or the file size if there is none
+     */
+    private static long findClauseBoundary(FileChannel channel, long offset, long size) throws IOException {
+        long windowStart = offset;
+        boolean skippingPartialLine = true;
+        boolean lineIsComment = false;
+        boolean lineHasToken = false;
+        boolean lastTokenIsZero = false;
+        int tokenLength = 0;
+        while (windowStart < size) {
+            int windowSize = (int) Math.min(WINDOW_SIZE, size - windowStart);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; ++i) {
+                byte c = buffer.get(i);
+                if (c == '\n') {
+                    if (!skippingPartialLine && !lineIsComment && lastTokenIsZero) {
+                        return windowStart + i + 1;
+                    }
+                    skippingPartialLine = false;
+                    lineIsComment = false;
+                    lineHasToken = false;
+                    lastTokenIsZero = false;
+                    tokenLength = 0;
+                } else if (c <= ' ') {
+                    tokenLength = 0;
+                } else {
+                    if (!lineHasToken && (c == 'c' || c == '%')) {
+                        lineIsComment = true;
+                    }
+                    lineHasToken = true;
+                    lastTokenIsZero = tokenLength == 0 && c == '0';
+                    ++tokenLength;
+                }
+            }
+            windowStart += windowSize;
+        }
+        return size;
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Sequential loading of compressed files
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * Loads an equation sequentially from a stream. Package-private so tests can control where reads end.
+     */
+    static CnfFormula loadStream(InputStream input, boolean weightedByName) throws IOException {
+        byte[] buffer = new byte[WINDOW_SIZE];
+        int filled = 0;
+        boolean endOfStream = false;
+
+        // Read until the header is complete
+        Header header = null;
+        while (header == null) {
+            if (filled == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = input.read(buffer, filled, buffer.length - filled);
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                filled += read;
+            }
+            header = Header.parse(ByteBuffer.wrap(buffer), filled, endOfStream, weightedByName);
+        }
+
+        var parser = new ChunkParser(header, new int[1 << 16], new int[1 << 12], header.weighted ? new long[1 << 12] : null,
+                0, 0);
+        parser.growable = true;
+        int start = (int) header.bodyStart;
+        while (true) {
+            // Only parse complete lines, so no token is split between two reads
+            int end = filled;
+            if (!endOfStream) {
+                while (end > start && buffer[end - 1] != '\n') {
+                    --end;
+                }
+            }
+            parser.parse(ByteBuffer.wrap(buffer), start, end);
+            if (endOfStream) {
+                break;
+            }
+
+            System.arraycopy(buffer, end, buffer, 0, filled - end);
+            filled -= end;
+            start = 0;
+            if (filled == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = input.read(buffer, filled, buffer.length - filled);
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                filled += read;
+            }
+        }
+        parser.finish();
+
+        int[] literals = Arrays.copyOf(parser.literals, parser.literalPosition);
+        int[] clauseOffsets = Arrays.copyOf(parser.clauseOffsets, parser.clauseIndex + 1);
+        long[] weights = header.weighted ? Arrays.copyOf(parser.weights, parser.clauseIndex) : null;
+        return new CnfFormula(header.variableCount(parser.maxVariable), clauseOffsets, literals, weights);
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Parsing
+    // -------------------------------------------------------------------------------------
+
+    private static class Header {
+        long bodyStart;
+        boolean weighted;
+        // Old .wcnf format: clauses with weight >= top are hard
+        long top = Long.MAX_VALUE;
+        // New .wcnf format: hard clauses start with "h"
+        boolean hardMarker;
+        // -1 if there is no p-line
+        int n = -1;
+
+        int variableCount(int maxVariable) {
+            if (n >= 0 && maxVariable > n) {
+                throw new IllegalArgumentException("Variable " + maxVariable + " exceeds n = " + n);
+            }
+            return Math.max(n, maxVariable);
+        }
+
+        /**
+         * @param buffer      the start of the file
+         * @param limit       the number of valid bytes in buffer
+         * @param endOfFile   true if the buffer contains the whole file
+         * @return the header or null if more bytes are needed
+         */
+        static Header parse(ByteBuffer buffer, int limit, boolean endOfFile, boolean weightedByName) {
+            int lineStart = 0;
+            while (true) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    ++lineEnd;
+                }
+                if (lineEnd == limit && !endOfFile) {
+                    return null;
+                }
+
+                var lineBuilder = new StringBuilder(lineEnd - lineStart);
+                for (int i = lineStart; i < lineEnd; ++i) {
+                    lineBuilder.append((char) buffer.get(i));
+                }
+                String line = lineBuilder.toString().trim();
+                int next = Math.min(lineEnd + 1, limit);
+                if (line.isEmpty() || line.startsWith("c")) {
+                    if (next >= limit) {
+                        // Only comments so far, a p-line can still follow in the next bytes
+                        return endOfFile ? headerless(limit, weightedByName) : null;
+                    }
+                    lineStart = next;
+                } else if (line.startsWith("p")) {
+                    String[] tokens = line.split("\\s+");
+                    var header = new Header();
+                    header.bodyStart = next;
+                    if (tokens.length < 4 || !(tokens[1].equals("cnf") || tokens[1].equals("wcnf"))) {
+                        throw new IllegalArgumentException("Invalid p-line: " + line);
+                    }
+                    header.weighted = tokens[1].equals("wcnf");
+                    header.n = Integer.parseInt(tokens[2]);
+                    if (header.weighted && tokens.length > 4) {
+                        header.top = Long.parseLong(tokens[4]);
+                    }
+                    return header;
+                } else {
+                    // The new .wcnf format and some .cnf files have no p-line
+                    return headerless(lineStart, weightedByName);
+                }
+            }
+        }
+
+        private static Header headerless(int bodyStart, boolean weighted) {
+            var header = new Header();
+            header.bodyStart = bodyStart;
+            header.weighted = weighted;
+            header.hardMarker = weighted;
+            return header;
+        }
+    }
+
+    /**
+     * Parses clauses into primitive arrays. Without target arrays it only counts clauses and literals.
+     */
+    private static class ChunkParser {
+        final Header header;
+        final boolean counting;
+        boolean growable;
+        int[] literals;
+        int[] clauseOffsets;
+        long[] weights;
+
+        int literalPosition;
+        int clauseIndex;
+        int maxVariable;
+
+        private int lastClauseEnd;
+        private boolean expectingWeight;
+        private long clauseWeight;
+        private boolean stopped;
+
+        ChunkParser(Header header) {
+            this.header = header;
+            this.counting = true;
+            this.expectingWeight = header.weighted;
+        }
+
+        ChunkParser(Header header, int[] literals, int[] clauseOffsets, long[] weights, int literalStart,
+                    int clauseStart) {
+            this.header = header;
+            this.counting = false;
+            this.literals = literals;
+            this.clauseOffsets = clauseOffsets;
+            this.weights = weights;
+            this.literalPosition = literalStart;
+            this.clauseIndex = clauseStart;
+            this.lastClauseEnd = literalStart;
+            this.expectingWeight = header.weighted;
+        }
+
+        void parse(ByteBuffer buffer, int from, int to) {
+            int i = from;
+            while (i < to && !stopped) {
+                byte c = buffer.get(i);
+                if (c <= ' ') {
+                    ++i;
+                    continue;
+                }
+                if (c == 'c') {
+                    while (i < to && buffer.get(i) != '\n') {
+                        ++i;
+                    }
+                    continue;
+                }
+                if (c == '%') {
+                    // End of file marker used by some benchmark sets
+                    stopped = true;
+                    break;
+                }
+                if (c == 'h' && header.hardMarker && expectingWeight) {
+                    clauseWeight = CnfFormula.HARD;
+                    expectingWeight = false;
+                    ++i;
+                    continue;
+                }
+
+                boolean negative = c == '-';
+                if (negative) {
+                    ++i;
+                }
+                long value = 0;
+                int digits = 0;
+                while (i < to) {
+                    int digit = buffer.get(i) - '0';
+                    if (digit < 0 || digit > 9) {
+                        break;
+                    }
+                    if (value > (Long.MAX_VALUE - digit) / 10) {
+                        throw new IllegalArgumentException("Number too large");
+                    }
+                    value = value * 10 + digit;
+                    ++digits;
+                    ++i;
+                }
+                if (digits == 0 || (i < to && buffer.get(i) > ' ')) {
+                    throw new IllegalArgumentException(i < to
+                            ? "Unexpected character '" + (char) buffer.get(i) + "'"
+                            : "Unexpected end of number");
+                }
+
+                if (expectingWeight) {
+                    if (negative) {
+                        throw new IllegalArgumentException("Negative clause weight");
+                    }
+                    clauseWeight = value >= header.top ? CnfFormula.HARD : value;
+                    expectingWeight = false;
+                } else if (value == 0) {
+                    endClause();
+                } else {
+                    if (value > MAX_VARIABLE) {
+                        throw new IllegalArgumentException("Variable " + value + " too large");
+                    }
+                    addLiteral(CnfFormula.encode((int) value - 1, negative));
+                    maxVariable = Math.max(maxVariable, (int) value);
+                }
+            }
+        }
+
+        /**
+         * Adds a clause that isn't terminated by 0 at the end of the file
+         */
+        void finish() {
+            if (literalPosition > lastClauseEnd) {
+                endClause();
+            }
+        }
+
+        private void addLiteral(int literal) {
+            if (!counting) {
+                if (literalPosition == literals.length) {
+                    if (!growable) {
+                        throw new IllegalStateException("Chunk changed between counting and parsing");
+                    }
+                    literals = Arrays.copyOf(literals, literals.length * 2);
+                }
+                literals[literalPosition] = literal;
+            }
+            ++literalPosition;
+        }
+
+        private void endClause() {
+            if (!counting) {
+                if (clauseIndex + 1 >= clauseOffsets.length) {
+                    if (!growable) {
+                        throw new IllegalStateException("Chunk changed between counting and parsing");
+                    }
+                    clauseOffsets = Arrays.copyOf(clauseOffsets, clauseOffsets.length * 2);
+                    if (weights != null) {
+                        weights = Arrays.copyOf(weights, weights.length * 2);
+                    }
+                }
+                clauseOffsets[clauseIndex + 1] = literalPosition;
+                if (weights != null) {
+                    weights[clauseIndex] = clauseWeight;
+                }
+            }
+            lastClauseEnd = literalPosition;
+            ++clauseIndex;
+            expectingWeight = header.weighted;
+        }
+    }
+}
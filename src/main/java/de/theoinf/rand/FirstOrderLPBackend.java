@@ -0,0 +1,113 @@
+package de.theoinf.rand;
+
+import com.google.ortools.sat.CpSolverStatus;
+
+import java.util.Arrays;
+
+/**
+ * Approximates the relaxed linear program in pure Java with the primal-dual hybrid gradient method (PDHG), so no
+ * native solver is needed and every iteration costs O(total number of literals).
+ * <p>
+ * The program is the saddle point problem max over x in [0,1]^n of min over y in [0,w] of
+ * sum(wj - yj) + sum(yj * sum of the literals of Cj), see {@link LPDuality}. Every iteration takes a projected
+ * gradient step in x and then in y at the extrapolated x. The best primal value and dual bound seen so far give the
+ * duality gap, and the iterations stop when it is below the tolerance. Hard clauses are treated as clauses with
+ * the weight {@link CnfFormula#getHardWeight()}.
+ */
+public class FirstOrderLPBackend implements LPBackend {
+    // How many iterations to run between two computations of the duality gap
+    private static final int GAP_CHECK_INTERVAL = 32;
+
+    private final int maxIterations;
+    private final double tolerance;
+
+    /**
+     * @param maxIterations the maximum number of iterations
+     * @param tolerance     the relative duality gap to stop at, e.g. 1e-3
+     */
+    public FirstOrderLPBackend(int maxIterations, double tolerance) {
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public String getName() {
+        return "FirstOrder;iterations=" + maxIterations + ";tolerance=" + tolerance;
+    }
+
+    @Override
+    public LPSolverResult solve(CnfFormula formula) {
+        int n = formula.getN();
+        int m = formula.getM();
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+
+        // tau * sigma * ||K||^2 < 1 with ||K|| <= sqrt(max clause length * max occurrences of a variable)
+        int[] occurrenceOffsets = formula.getOccurrenceOffsets();
+        int maxOccurrences = 1;
+        for (int i = 0; i < n; ++i) {
+            maxOccurrences = Math.max(maxOccurrences, occurrenceOffsets[i + 1] - occurrenceOffsets[i]);
+        }
+        double step = 0.9 / Math.sqrt((double) Math.max(1, formula.maxClauseLength()) * maxOccurrences);
+
+        double[] x = new double[n];
+        Arrays.fill(x, 0.5);
+        double[] extrapolated = new double[n];
+        double[] y = new double[m];
+        double[] coefficients = new double[n];
+
+        double[] bestX = x.clone();
+        double bestPrimal = LPDuality.primalValue(formula, x);
+        double bestDual = LPDuality.dualBound(formula, y);
+        int iteration = 0;
+        while (iteration < maxIterations && LPDuality.relativeGap(bestPrimal, bestDual) > tolerance) {
+            // x-step: gradient ascent along ci = sum(yj for xi in Cj) - sum(yj for !xi in Cj)
+            Arrays.fill(coefficients, 0.0);
+            for (int j = 0; j < m; ++j) {
+                for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                    int variable = CnfFormula.variableOf(literals[i]);
+                    coefficients[variable] += CnfFormula.isNegated(literals[i]) ? -y[j] : y[j];
+                }
+            }
+            for (int i = 0; i < n; ++i) {
+                double next = Math.min(1.0, Math.max(0.0, x[i] + step * coefficients[i]));
+                extrapolated[i] = 2.0 * next - x[i];
+                x[i] = next;
+            }
+
+            // y-step: gradient descent along (sum of the literals of Cj at the extrapolated x) - 1
+            for (int j = 0; j < m; ++j) {
+                double literalSum = 0.0;
+                for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                    double xi = extrapolated[CnfFormula.variableOf(literals[i])];
+                    literalSum += CnfFormula.isNegated(literals[i]) ? 1.0 - xi : xi;
+                }
+                y[j] = Math.min(formula.weight(j), Math.max(0.0, y[j] - step * (literalSum - 1.0)));
+            }
+
+            if (++iteration % GAP_CHECK_INTERVAL == 0) {
+                double primal = LPDuality.primalValue(formula, x);
+                if (primal > bestPrimal) {
+                    bestPrimal = primal;
+                    System.arraycopy(x, 0, bestX, 0, n);
+                }
+                bestDual = Math.min(bestDual, LPDuality.dualBound(formula, y));
+            }
+        }
+
+        var result = new LPSolverResult();
+        result.xValues = bestX;
+        result.zValues = new double[m];
+        for (int j = 0; j < m; ++j) {
+            double literalSum = 0.0;
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                double xi = bestX[CnfFormula.variableOf(literals[i])];
+                literalSum += CnfFormula.isNegated(literals[i]) ? 1.0 - xi : xi;
+            }
+            result.zValues[j] = Math.min(1.0, literalSum);
+        }
+        result.dualityGap = LPDuality.relativeGap(bestPrimal, bestDual);
+        result.status = result.dualityGap <= tolerance ? CpSolverStatus.OPTIMAL : CpSolverStatus.FEASIBLE;
+        return result;
+    }
+}
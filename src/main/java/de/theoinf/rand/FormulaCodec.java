@@ -0,0 +1,95 @@
+package de.theoinf.rand;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads equations in a compact binary format for {@link SolveService}:
+ * <pre>
+ *     int     n (number of variables)
+ *     int     m (number of clauses)
+ *     int     number of literals
+ *     boolean weighted
+ *     int     clause lengths... (m values)
+ *     int     encoded literals... (see {@link CnfFormula#encode(int, boolean)})
+ *     long    weights... (m values, {@link CnfFormula#HARD} for hard clauses, only if weighted)
+ * </pre>
+ * All values are big-endian as written by {@link DataOutput}. The arrays are allocated from the sizes before the
+ * values arrive, so {@link #read(DataInput)} rejects n, m and numbers of literals above
+ * {@code -Dmaxsat.codec.maxSize} (default 2^26).
+ */
+public class FormulaCodec {
+    private static final int MAX_SIZE = Integer.getInteger("maxsat.codec.maxSize", 1 << 26);
+
+    /**
+     * @param formula the equation to write
+     * @param output  the output to write to
+     */
+    public static void write(CnfFormula formula, DataOutput output) throws IOException {
+        int m = formula.getM();
+        output.writeInt(formula.getN());
+        output.writeInt(m);
+        output.writeInt(formula.getLiteralCount());
+        output.writeBoolean(formula.isWeighted());
+        for (int j = 0; j < m; ++j) {
+            output.writeInt(formula.clauseLength(j));
+        }
+        for (int literal : formula.getLiterals()) {
+            output.writeInt(literal);
+        }
+        if (formula.isWeighted()) {
+            for (long weight : formula.getWeights()) {
+                output.writeLong(weight);
+            }
+        }
+    }
+
+    /**
+     * @param input the input to read from
+     * @return the equation
+     * @throws IOException if the input ends early, doesn't contain a valid equation or the equation is too large
+     */
+    public static CnfFormula read(DataInput input) throws IOException {
+        int n = input.readInt();
+        int m = input.readInt();
+        int literalCount = input.readInt();
+        boolean weighted = input.readBoolean();
+        if (n < 0 || m < 0 || literalCount < 0 || n > MAX_SIZE || m > MAX_SIZE || literalCount > MAX_SIZE) {
+            throw new IOException("Invalid equation size n=" + n + ", m=" + m + ", literals=" + literalCount);
+        }
+
+        int[] clauseOffsets = new int[m + 1];
+        for (int j = 0; j < m; ++j) {
+            int length = input.readInt();
+            if (length < 0 || length > literalCount - clauseOffsets[j]) {
+                throw new IOException("Invalid length " + length + " of clause " + (j + 1));
+            }
+            clauseOffsets[j + 1] = clauseOffsets[j] + length;
+        }
+        if (clauseOffsets[m] != literalCount) {
+            throw new IOException("The clauses have " + clauseOffsets[m] + " literals, expected " + literalCount);
+        }
+
+        int[] literals = new int[literalCount];
+        for (int i = 0; i < literalCount; ++i) {
+            literals[i] = input.readInt();
+            if (literals[i] < 0 || CnfFormula.variableOf(literals[i]) >= n) {
+                throw new IOException("Invalid literal " + literals[i] + " for " + n + " variables");
+            }
+        }
+
+        long[] weights = null;
+        if (weighted) {
+            weights = new long[m];
+            for (int j = 0; j < m; ++j) {
+                weights[j] = input.readLong();
+            }
+        }
+        try {
+            return new CnfFormula(n, clauseOffsets, literals, weights);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid equation: " + e.getMessage(), e);
+        }
+    }
+}
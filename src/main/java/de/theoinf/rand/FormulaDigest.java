@@ -0,0 +1,105 @@
+package de.theoinf.rand;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A SHA-256 digest of an equation, used to identify equations in caches.
+ * <p>
+ * The literals of every clause are sorted before hashing, so the literal order inside a clause doesn't change the
+ * digest. The clause order is part of the digest because solver results store one z-value per clause.
+ * The weights of weighted equations follow the clauses, so unweighted equations keep their digest.
+ */
+public final class FormulaDigest {
+    private final byte[] bytes;
+    private final int hashCode;
+
+    private FormulaDigest(byte[] bytes) {
+        this.bytes = bytes;
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * @param formula the equation to hash
+     * @return the digest of the canonical form of the equation
+     */
+    public static FormulaDigest of(CnfFormula formula) {
+        MessageDigest digest = newDigest();
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        buffer.putInt(formula.getN()).putInt(formula.getM());
+        int[] clause = new int[formula.maxClauseLength()];
+        for (int j = 0; j < formula.getM(); ++j) {
+            int length = formula.clauseLength(j);
+            System.arraycopy(literals, clauseOffsets[j], clause, 0, length);
+            Arrays.sort(clause, 0, length);
+            for (int i = -1; i < length; ++i) {
+                if (!buffer.hasRemaining()) {
+                    digest.update(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+                // The clause length separates the clauses
+                buffer.putInt(i < 0 ? length : clause[i]);
+            }
+        }
+        long[] weights = formula.getWeights();
+        if (weights != null) {
+            for (long weight : weights) {
+                if (buffer.remaining() < Long.BYTES) {
+                    digest.update(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+                buffer.putLong(weight);
+            }
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+        return new FormulaDigest(digest.digest());
+    }
+
+    /**
+     * @param context additional parameters that influence a result, e.g. the solver and its parameters
+     * @return a digest of this digest combined with the context
+     */
+    public FormulaDigest with(String context) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes);
+        digest.update(context.getBytes(StandardCharsets.UTF_8));
+        return new FormulaDigest(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FormulaDigest && Arrays.equals(bytes, ((FormulaDigest) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * @return the digest as lowercase hex string
+     */
+    @Override
+    public String toString() {
+        var builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package de.theoinf.rand;
+
+/**
+ * Solves the relaxed linear program with the single-threaded GLOP simplex solver
+ */
+public class GlopBackend implements LPBackend {
+    private final double timeout;
+
+    /**
+     * @param timeout timeout in seconds
+     */
+    public GlopBackend(double timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public String getName() {
+        return "GLOP;timeout=" + timeout;
+    }
+
+    @Override
+    public LPSolverResult solve(CnfFormula formula) {
+        return ILPSolver.solveGLOP(formula, timeout);
+    }
+}
@@ -2,20 +2,42 @@ package de.theoinf.rand;
 
 import com.google.ortools.Loader;
 import com.google.ortools.sat.CpModel;
+import com.google.ortools.sat.CpModelProto;
+import com.google.ortools.sat.CpObjectiveProto;
 import com.google.ortools.sat.CpSolver;
+import com.google.ortools.sat.CpSolverResponse;
+import com.google.ortools.sat.CpSolverSolutionCallback;
 import com.google.ortools.sat.CpSolverStatus;
-import com.google.ortools.sat.IntVar;
-import com.google.ortools.sat.LinearExpr;
+import com.google.ortools.sat.IntegerVariableProto;
+import com.google.ortools.sat.LinearConstraintProto;
+import com.google.ortools.sat.PartialVariableAssignment;
 
-import com.google.ortools.linearsolver.MPConstraint;
-import com.google.ortools.linearsolver.MPObjective;
+import com.google.ortools.linearsolver.MPConstraintProto;
+import com.google.ortools.linearsolver.MPModelProto;
+import com.google.ortools.linearsolver.MPModelRequest;
+import com.google.ortools.linearsolver.MPSolutionResponse;
 import com.google.ortools.linearsolver.MPSolver;
-import com.google.ortools.linearsolver.MPVariable;
+import com.google.ortools.linearsolver.MPVariableProto;
 
 import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 public class ILPSolver {
+    /**
+     * Optional on-disk store for solver results. Results are reused across runs when set.
+     */
+    public static LPResultStore resultStore = null;
+
+    // Names the model variables x1..xn and Z1..Zm for debugging with -Dmaxsat.modelNames=true
+    private static final boolean MODEL_NAMES = Boolean.getBoolean("maxsat.modelNames");
+
+    private static volatile boolean nativeLibrariesLoaded = false;
+
+    private static final LatencyHistogram CP_SAT_BUILD_TIME = Metrics.histogram("ilp.cpsat.build");
+    private static final LatencyHistogram CP_SAT_SOLVE_TIME = Metrics.histogram("ilp.cpsat.solve");
+    private static final LatencyHistogram GLOP_BUILD_TIME = Metrics.histogram("ilp.glop.build");
+    private static final LatencyHistogram GLOP_SOLVE_TIME = Metrics.histogram("ilp.glop.solve");
+    private static final LatencyHistogram PDLP_SOLVE_TIME = Metrics.histogram("ilp.pdlp.solve");
 
     /**
      * We us google or-tools for solving this ILP (integer linear program).
@@ -23,143 +45,495 @@ public class ILPSolver {
      * in the interval [0,1] by a big integer value (e.g. mapping it to the range [0,1000]) and dividing the result
      * by the same integer value.
      *
-     * @param n        the number of variables in the equation
-     * @param equation an (m,n) equation in KNF
+     * @param formula  an (m,n) equation in KNF
      * @param accuracy The integer accuracy of this algorithm. Results are in 1/accuracy steps.
      *                 A value of 1000 means the result values are in steps of 0.001.
      * @param timeout  timeout in seconds
      */
-    public static LPSolverResult solveCpSat(int n, Integer[][] equation, long accuracy, double timeout) {
-        Loader.loadNativeLibraries();
+    public static LPSolverResult solveCpSat(CnfFormula formula, long accuracy, double timeout) {
+        return solveStored(formula, "CP-SAT;accuracy=" + accuracy,
+                () -> solve(buildCpSatModel(formula, accuracy), timeout));
+    }
+
+    /**
+     * Solves the ILP with several CP-SAT workers, starting from a known assignment. CP-SAT uses the hint as its
+     * first solution, so even if it doesn't prove optimality in time the result is at least as good as the hint
+     * and has a duality gap from the best bound.
+     *
+     * @param formula  an (m,n) equation in KNF
+     * @param accuracy the integer accuracy of the model, see {@link #solveCpSat(CnfFormula, long, double)}
+     * @param timeout  timeout in seconds
+     * @param workers  the number of parallel search workers
+     * @param hint     a variable assignment to start from, e.g. the best result of the randomised algorithms,
+     *                 or null
+     * @param progress is called for every improving solution, or null
+     */
+    public static LPSolverResult solveCpSat(CnfFormula formula, long accuracy, double timeout, int workers,
+                                            boolean[] hint, CpSatProgressListener progress) {
+        return solveCpSat(formula, accuracy, timeout, workers, hint, progress, null);
+    }
+
+    /**
+     * Like {@link #solveCpSat(CnfFormula, long, double, int, boolean[], CpSatProgressListener)}, but the search can
+     * be stopped before the timeout, e.g. once another algorithm found an optimal assignment.
+     *
+     * @param cancellation stops the search when cancelled, or null
+     */
+    public static LPSolverResult solveCpSat(CnfFormula formula, long accuracy, double timeout, int workers,
+                                            boolean[] hint, CpSatProgressListener progress,
+                                            CpSatCancellation cancellation) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("CP-SAT needs at least one worker");
+        }
+        // Only final results are stored and these don't depend on the hint, it only speeds up the search
+        String solver = "CP-SAT;accuracy=" + accuracy + ";workers=" + workers;
+        return solveStored(formula, solver, () -> {
+            CpSatModel model = buildCpSatModel(formula, accuracy);
+            if (hint != null) {
+                setHint(model, hint);
+            }
+            return solve(model, timeout, workers, progress, cancellation);
+        });
+    }
+
+    /**
+     * A CP-SAT model of the equation that has been built but not solved yet.
+     * Variables 0..n-1 are the xi, variables n..n+m-1 are the Zj.
+     */
+    public static final class CpSatModel {
+        private final CpModel model;
+        private final CnfFormula formula;
+        private final int n;
+        private final int m;
+        private final long accuracy;
+
+        private CpSatModel(CpModel model, CnfFormula formula, long accuracy) {
+            this.model = model;
+            this.formula = formula;
+            this.n = formula.getN();
+            this.m = formula.getM();
+            this.accuracy = accuracy;
+        }
+    }
+
+    /**
+     * Builds the CP-SAT model for {@link #solveCpSat(CnfFormula, long, double)} without solving it.
+     * The model proto is filled directly, so no JNI call is made until the model is solved.
+     *
+     * @param formula  an (m,n) equation in KNF
+     * @param accuracy the integer accuracy of the model
+     */
+    public static CpSatModel buildCpSatModel(CnfFormula formula, long accuracy) {
+        loadNativeLibraries();
+        long start = Metrics.startTime();
         CpModel model = new CpModel();
+        CpModelProto.Builder builder = model.getBuilder();
+        int n = formula.getN();
+        int m = formula.getM();
 
-        // array of IntVars
-        IntVar[] xVars = new IntVar[n];
-        IntVar[] oXVars = new IntVar[n];
         for (int i = 0; i < n; ++i) {
-            xVars[i] = model.newIntVar(0, accuracy, "x" + (i + 1));
-            oXVars[i] = model.newIntVar(0, accuracy, "ox" + (i + 1));
-            model.addEquality(LinearExpr.sum(new IntVar[]{xVars[i], oXVars[i]}), accuracy);
+            IntegerVariableProto.Builder xVar = builder.addVariablesBuilder().addDomain(0).addDomain(accuracy);
+            if (MODEL_NAMES) {
+                xVar.setName("x" + (i + 1));
+            }
+        }
+        for (int j = 0; j < m; ++j) {
+            // Hard clauses must be true, so their Zj is fixed to 1
+            IntegerVariableProto.Builder zVar = builder.addVariablesBuilder()
+                    .addDomain(formula.isHard(j) ? accuracy : 0).addDomain(accuracy);
+            if (MODEL_NAMES) {
+                zVar.setName("Z" + (j + 1));
+            }
         }
 
-        IntVar[] zVars = new IntVar[equation.length];
-        for (int i = 0; i < equation.length; ++i) {
-            zVars[i] = model.newIntVar(0, accuracy, "Z" + (i + 1));
+        var row = new ClauseRow(formula);
+        for (int j = 0; j < m; ++j) {
+            row.load(j);
+            LinearConstraintProto.Builder constraint = builder.addConstraintsBuilder().getLinearBuilder();
+            for (int i = 0; i < row.size; ++i) {
+                if (row.coefficients[i] != 0) {
+                    constraint.addVars(row.variables[i]).addCoeffs(row.coefficients[i]);
+                }
+            }
+            constraint.addVars(n + j).addCoeffs(-1);
+            constraint.addDomain(-row.negated * accuracy).addDomain(Long.MAX_VALUE);
         }
 
-        for (int j = 0; j < equation.length; ++j) {
-            var clause = equation[j];
-            IntVar[] literals = new IntVar[clause.length];
-            for (int i = 0; i < clause.length; ++i) {
-                var literal = clause[i];
-                boolean negated = literal < 0;
-                int index = Math.abs(literal) - 1;
-                literals[i] = negated ? oXVars[index] : xVars[index];
+        // CP-SAT minimizes, so maximize sum(wj * Zj) of the soft clauses by minimizing -sum(wj * Zj)
+        // and scaling the objective by -1
+        CpObjectiveProto.Builder objective = builder.getObjectiveBuilder();
+        for (int j = 0; j < m; ++j) {
+            if (!formula.isHard(j)) {
+                objective.addVars(n + j).addCoeffs(-formula.weight(j));
             }
+        }
+        objective.setScalingFactor(-1.0);
+
+        CP_SAT_BUILD_TIME.recordSince(start);
+        return new CpSatModel(model, formula, accuracy);
+    }
+
+    /**
+     * Solves a model built by {@link #buildCpSatModel(CnfFormula, long)}
+     *
+     * @param cpSatModel the model to solve
+     * @param timeout    timeout in seconds
+     */
+    public static LPSolverResult solve(CpSatModel cpSatModel, double timeout) {
+        return solve(cpSatModel, timeout, 0, null);
+    }
 
-            LinearExpr sumVars = LinearExpr.sum(literals);
-            LinearExpr zVar = LinearExpr.term(zVars[j], 1);
-            model.addGreaterOrEqual(sumVars, zVar);
+    /**
+     * Sets a complete solution hint: the xi of the assignment and the Zj of the clauses it satisfies.
+     * Replaces an earlier hint.
+     *
+     * @param cpSatModel the model to solve
+     * @param assignment the variable assignment, assignment[i] is the value of x(i+1)
+     */
+    public static void setHint(CpSatModel cpSatModel, boolean[] assignment) {
+        CnfFormula formula = cpSatModel.formula;
+        if (assignment.length != cpSatModel.n) {
+            throw new IllegalArgumentException("The hint has " + assignment.length + " variables, expected "
+                    + cpSatModel.n);
         }
+        long accuracy = cpSatModel.accuracy;
+        CpModelProto.Builder builder = cpSatModel.model.getBuilder().clearSolutionHint();
+        PartialVariableAssignment.Builder hint = builder.getSolutionHintBuilder();
+        for (int i = 0; i < cpSatModel.n; ++i) {
+            hint.addVars(i).addValues(assignment[i] ? accuracy : 0);
+        }
+        int[] literals = formula.getLiterals();
+        for (int j = 0; j < cpSatModel.m; ++j) {
+            boolean satisfied = false;
+            for (int i = formula.clauseStart(j); i < formula.clauseEnd(j) && !satisfied; ++i) {
+                satisfied = assignment[CnfFormula.variableOf(literals[i])] != CnfFormula.isNegated(literals[i]);
+            }
+            // A false hard clause makes the hint infeasible, CP-SAT then only uses it as a search direction
+            hint.addVars(cpSatModel.n + j).addValues(satisfied || formula.isHard(j) ? accuracy : 0);
+        }
+    }
 
-        model.maximize(LinearExpr.sum(zVars));
+    /**
+     * Solves a model built by {@link #buildCpSatModel(CnfFormula, long)}
+     *
+     * @param cpSatModel the model to solve
+     * @param timeout    timeout in seconds
+     * @param workers    the number of parallel search workers, 0 for the CP-SAT default
+     * @param progress   is called for every improving solution, or null
+     */
+    public static LPSolverResult solve(CpSatModel cpSatModel, double timeout, int workers,
+                                       CpSatProgressListener progress) {
+        return solve(cpSatModel, timeout, workers, progress, null);
+    }
 
+    /**
+     * @param cancellation stops the search when cancelled, or null. A cancelled search has the status FEASIBLE or
+     *                     UNKNOWN unless it proved optimality before, so its result isn't stored.
+     */
+    public static LPSolverResult solve(CpSatModel cpSatModel, double timeout, int workers,
+                                       CpSatProgressListener progress, CpSatCancellation cancellation) {
+        long accuracy = cpSatModel.accuracy;
+        long start = Metrics.startTime();
         CpSolver solver = new CpSolver();
         solver.getParameters().setMaxTimeInSeconds(timeout);
+        if (workers > 0) {
+            solver.getParameters().setNumWorkers(workers);
+        }
         LPSolverResult result = new LPSolverResult();
-        result.status = solver.solve(model);
-        if(result.status == CpSolverStatus.UNKNOWN)
-        {
+        if (cancellation != null && !cancellation.attach(solver)) {
+            result.status = CpSolverStatus.UNKNOWN;
+            return result;
+        }
+        try {
+            if (progress == null) {
+                result.status = solver.solve(cpSatModel.model);
+            } else {
+                result.status = solver.solve(cpSatModel.model, new CpSolverSolutionCallback() {
+                    @Override
+                    public void onSolutionCallback() {
+                        progress.onSolution(objectiveValue(), bestObjectiveBound(), wallTime());
+                    }
+                });
+            }
+        } finally {
+            if (cancellation != null) {
+                cancellation.attach(null);
+            }
+        }
+        CP_SAT_SOLVE_TIME.recordSince(start);
+        countStatus("cpsat", result.status);
+        if (result.status != CpSolverStatus.OPTIMAL && result.status != CpSolverStatus.FEASIBLE) {
             // Failed to solve problem
             return result;
         }
-        for (var zVar : zVars) {
-            result.zValues.add((double) solver.value(zVar) / accuracy);
+        CpSolverResponse response = solver.response();
+        result.zValues = new double[cpSatModel.m];
+        for (int j = 0; j < cpSatModel.m; ++j) {
+            result.zValues[j] = (double) response.getSolution(cpSatModel.n + j) / accuracy;
         }
-        for (var xVar : xVars) {
-            result.xValues.add((double) solver.value(xVar) / accuracy);
+        result.xValues = new double[cpSatModel.n];
+        for (int i = 0; i < cpSatModel.n; ++i) {
+            result.xValues[i] = (double) response.getSolution(i) / accuracy;
         }
+        result.dualityGap = LPDuality.relativeGap(response.getObjectiveValue(), response.getBestObjectiveBound());
 
         return result;
     }
 
     /**
      * We us google or-tools for solving this LP (linear program).
-     * @param n        the number of variables in the equation
-     * @param equation an (m,n) equation in KNF
+     * @param formula  an (m,n) equation in KNF
      * @param timeout  timeout in seconds
      */
-    public static LPSolverResult solveGLOP(int n, Integer[][] equation, double timeout) {
-        Loader.loadNativeLibraries();
-        MPSolver solver = MPSolver.createSolver("GLOP");
+    public static LPSolverResult solveGLOP(CnfFormula formula, double timeout) {
+        return solveStored(formula, "GLOP", () -> solve(buildGlopModel(formula), timeout));
+    }
 
-        double infinity = java.lang.Double.POSITIVE_INFINITY;
+    /**
+     * Solves the LP (linear program) with PDLP, the multithreaded first-order solver of or-tools.
+     * It uses the same model as GLOP, see {@link #buildGlopModel(CnfFormula)}.
+     *
+     * @param formula   an (m,n) equation in KNF
+     * @param timeout   timeout in seconds
+     * @param threads   the number of threads PDLP may use
+     * @param tolerance the absolute and relative tolerance of the optimality criteria, e.g. 1e-4
+     */
+    public static LPSolverResult solvePDLP(CnfFormula formula, double timeout, int threads, double tolerance) {
+        String parameters = "num_threads: " + threads
+                + " termination_criteria { simple_optimality_criteria {"
+                + " eps_optimal_absolute: " + tolerance + " eps_optimal_relative: " + tolerance + " } }";
+        return solveStored(formula, "PDLP;threads=" + threads + ";tolerance=" + tolerance,
+                () -> solve(buildGlopModel(formula), MPModelRequest.SolverType.PDLP_LINEAR_PROGRAMMING, parameters,
+                        timeout));
+    }
 
-        // array of IntVars
-        MPVariable[] xVars = new MPVariable[n];
-        MPVariable[] oXVars = new MPVariable[n];
-        for (int i = 0; i < n; ++i) {
-            xVars[i] = solver.makeNumVar(0.0, 1.0, "x" + (i + 1));
-            oXVars[i] = solver.makeNumVar(0.0, 1.0, "x" + (i + 1));
-            MPConstraint constraint = solver.makeConstraint(1.0, 1.0);
-            constraint.setCoefficient(xVars[i], 1.0);
-            constraint.setCoefficient(oXVars[i], 1.0);
-        }
+    /**
+     * A GLOP model of the relaxed linear program that has been built but not solved yet.
+     * Variables 0..n-1 are the xi, variables n..n+m-1 are the Zj.
+     */
+    public static final class GlopModel {
+        private final MPModelProto model;
+        private final int n;
+        private final int m;
 
-        MPVariable[] zVars = new MPVariable[equation.length];
-        for (int i = 0; i < equation.length; ++i) {
-            zVars[i] = solver.makeNumVar(0.0, 1.0, "Z" + (i + 1));
+        private GlopModel(MPModelProto model, int n, int m) {
+            this.model = model;
+            this.n = n;
+            this.m = m;
         }
+    }
 
-        for (int j = 0; j < equation.length; ++j) {
-            var clause = equation[j];
+    /**
+     * Builds the GLOP model for {@link #solveGLOP(CnfFormula, double)} without solving it.
+     * The model proto is filled directly, so no JNI call is made until the model is solved.
+     *
+     * @param formula an (m,n) equation in KNF
+     */
+    public static GlopModel buildGlopModel(CnfFormula formula) {
+        loadNativeLibraries();
+        long start = Metrics.startTime();
+        int n = formula.getN();
+        int m = formula.getM();
 
-            MPConstraint constraint = solver.makeConstraint(0.0, infinity);
-            for (Integer literal : clause) {
-                boolean negated = literal < 0;
-                int index = Math.abs(literal) - 1;
-                constraint.setCoefficient(negated ? oXVars[index] : xVars[index], 1.0);
-            }
+        double infinity = java.lang.Double.POSITIVE_INFINITY;
 
-            constraint.setCoefficient(zVars[j], -1.0);
+        // Maximize sum(wj * Zj) of the soft clauses
+        MPModelProto.Builder model = MPModelProto.newBuilder().setMaximize(true);
+        for (int i = 0; i < n; ++i) {
+            MPVariableProto.Builder xVar = model.addVariableBuilder().setLowerBound(0.0).setUpperBound(1.0);
+            if (MODEL_NAMES) {
+                xVar.setName("x" + (i + 1));
+            }
+        }
+        for (int j = 0; j < m; ++j) {
+            // Hard clauses must be true, so their Zj is fixed to 1
+            boolean hard = formula.isHard(j);
+            MPVariableProto.Builder zVar = model.addVariableBuilder()
+                    .setLowerBound(hard ? 1.0 : 0.0)
+                    .setUpperBound(1.0)
+                    .setObjectiveCoefficient(hard ? 0.0 : formula.weight(j));
+            if (MODEL_NAMES) {
+                zVar.setName("Z" + (j + 1));
+            }
         }
 
-        // Maximize sum(Z)
-        MPObjective objective = solver.objective();
-        for(var zVar : zVars) {
-            objective.setCoefficient(zVar, 1);
+        var row = new ClauseRow(formula);
+        for (int j = 0; j < m; ++j) {
+            row.load(j);
+            MPConstraintProto.Builder constraint = model.addConstraintBuilder()
+                    .setLowerBound(-row.negated)
+                    .setUpperBound(infinity);
+            for (int i = 0; i < row.size; ++i) {
+                if (row.coefficients[i] != 0) {
+                    constraint.addVarIndex(row.variables[i]).addCoefficient(row.coefficients[i]);
+                }
+            }
+            constraint.addVarIndex(n + j).addCoefficient(-1.0);
         }
-        objective.setMaximization();
 
-        solver.setTimeLimit(Math.round(timeout * 1000));
-        final MPSolver.ResultStatus resultStatus = solver.solve();
+        GLOP_BUILD_TIME.recordSince(start);
+        return new GlopModel(model.build(), n, m);
+    }
+
+    /**
+     * Solves a model built by {@link #buildGlopModel(CnfFormula)}
+     *
+     * @param glopModel the model to solve
+     * @param timeout   timeout in seconds
+     */
+    public static LPSolverResult solve(GlopModel glopModel, double timeout) {
+        return solve(glopModel, MPModelRequest.SolverType.GLOP_LINEAR_PROGRAMMING, null, timeout);
+    }
+
+    /**
+     * @param solverType the linear solver, GLOP or PDLP
+     * @param parameters the solver specific parameters in protobuf text format, null for the defaults
+     */
+    private static LPSolverResult solve(GlopModel glopModel, MPModelRequest.SolverType solverType,
+                                        String parameters, double timeout) {
+        boolean pdlp = solverType == MPModelRequest.SolverType.PDLP_LINEAR_PROGRAMMING;
+        MPModelRequest.Builder request = MPModelRequest.newBuilder()
+                .setModel(glopModel.model)
+                .setSolverType(solverType)
+                .setSolverTimeLimitSeconds(timeout);
+        if (parameters != null) {
+            request.setSolverSpecificParameters(parameters);
+        }
+        long start = Metrics.startTime();
+        final MPSolutionResponse response = MPSolver.solveWithProto(request.build());
+        (pdlp ? PDLP_SOLVE_TIME : GLOP_SOLVE_TIME).recordSince(start);
 
         var result = new LPSolverResult();
-        result.xValues = Arrays.stream(xVars)
-                .mapToDouble(MPVariable::solutionValue)
-                .boxed()
-                .collect(Collectors.toList());
-        result.zValues = Arrays.stream(zVars)
-                .mapToDouble(MPVariable::solutionValue)
-                .boxed()
-                .collect(Collectors.toList());
-
-        switch (resultStatus)
+        result.xValues = solutionValues(response, 0, glopModel.n);
+        result.zValues = solutionValues(response, glopModel.n, glopModel.m);
+
+        switch (response.getStatus())
         {
-            case OPTIMAL:
+            case MPSOLVER_OPTIMAL:
                 result.status = CpSolverStatus.OPTIMAL;
                 break;
-            case FEASIBLE:
+            case MPSOLVER_FEASIBLE:
                 result.status = CpSolverStatus.FEASIBLE;
                 break;
-            case INFEASIBLE:
+            case MPSOLVER_INFEASIBLE:
                 result.status = CpSolverStatus.INFEASIBLE;
                 break;
             default:
                 result.status = CpSolverStatus.UNKNOWN;
                 break;
         }
+        countStatus(pdlp ? "pdlp" : "glop", result.status);
+
+        // GLOP proves its bound, PDLP reports the objective of its dual iterate
+        double bound = response.getBestObjectiveBound();
+        if (result.status != CpSolverStatus.INFEASIBLE && result.status != CpSolverStatus.UNKNOWN
+                && Double.isFinite(bound)) {
+            result.dualityGap = LPDuality.relativeGap(response.getObjectiveValue(), bound);
+        }
 
         return result;
     }
+
+    /**
+     * @return the values of the variables from..from+count-1, 0 for variables without a value
+     */
+    private static double[] solutionValues(MPSolutionResponse response, int from, int count) {
+        double[] values = new double[count];
+        int available = Math.min(response.getVariableValueCount(), from + count);
+        for (int i = from; i < available; ++i) {
+            values[i - from] = response.getVariableValue(i);
+        }
+        return values;
+    }
+
+    /**
+     * The linear constraint of a clause. A negated literal !x is written as 1 - x, so
+     * sum(literals) >= Z becomes sum(coefficients * x) - Z >= -(number of negated literals).
+     * That needs no extra variables for the negations. Repeated variables are merged into one coefficient.
+     */
+    private static final class ClauseRow {
+        private final int[] clauseOffsets;
+        private final int[] literals;
+        private final int[] positionOf;
+        private final int[] variables;
+        private final int[] coefficients;
+        private int size;
+        private int negated;
+
+        ClauseRow(CnfFormula formula) {
+            this.clauseOffsets = formula.getClauseOffsets();
+            this.literals = formula.getLiterals();
+            this.positionOf = new int[formula.getN()];
+            Arrays.fill(positionOf, -1);
+            this.variables = new int[formula.maxClauseLength()];
+            this.coefficients = new int[variables.length];
+        }
+
+        void load(int clause) {
+            for (int i = 0; i < size; ++i) {
+                positionOf[variables[i]] = -1;
+            }
+            size = 0;
+            negated = 0;
+            for (int i = clauseOffsets[clause]; i < clauseOffsets[clause + 1]; ++i) {
+                int variable = CnfFormula.variableOf(literals[i]);
+                int position = positionOf[variable];
+                if (position < 0) {
+                    position = size++;
+                    positionOf[variable] = position;
+                    variables[position] = variable;
+                    coefficients[position] = 0;
+                }
+                if (CnfFormula.isNegated(literals[i])) {
+                    --coefficients[position];
+                    ++negated;
+                } else {
+                    ++coefficients[position];
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the or-tools libraries on first use. Later calls return immediately, so long-running processes like
+     * {@link SolveService} load them only once.
+     */
+    public static void loadNativeLibraries() {
+        if (!nativeLibrariesLoaded) {
+            synchronized (ILPSolver.class) {
+                if (!nativeLibrariesLoaded) {
+                    Loader.loadNativeLibraries();
+                    nativeLibrariesLoaded = true;
+                }
+            }
+        }
+    }
+
+    private static void countStatus(String solver, CpSolverStatus status) {
+        if (Metrics.ENABLED) {
+            Metrics.increment("ilp." + solver + ".status." + status);
+        }
+    }
+
+    /**
+     * Loads the result from the result store if possible, otherwise solves the equation and stores the result.
+     * Only final results are stored, so the timeout isn't part of the key.
+     *
+     * @param formula the equation to solve
+     * @param solver  the solver and all parameters that influence a final result
+     * @param solve   solves the equation
+     */
+    private static LPSolverResult solveStored(CnfFormula formula, String solver, Supplier<LPSolverResult> solve) {
+        LPResultStore store = resultStore;
+        if (store == null) {
+            return solve.get();
+        }
+        FormulaDigest key = LPResultStore.key(formula, solver);
+        LPSolverResult result = store.load(key);
+        if (result == null) {
+            result = solve.get();
+            store.store(key, result);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,17 @@
+package de.theoinf.rand;
+
+/**
+ * A solver for the relaxed linear program of an equation, see {@link ILPSolver}
+ */
+public interface LPBackend {
+    /**
+     * @return the name of the solver and all parameters that influence the result, used as cache key
+     */
+    String getName();
+
+    /**
+     * @param formula the equation to solve
+     * @return the x- and z-values, the status and the duality gap of the solution
+     */
+    LPSolverResult solve(CnfFormula formula);
+}
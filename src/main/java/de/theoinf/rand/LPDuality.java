@@ -0,0 +1,102 @@
+package de.theoinf.rand;
+
+import com.google.ortools.sat.CpSolverStatus;
+
+/**
+ * Bounds for the relaxed linear program max sum(wj * Zj) with Zj <= sum of the literals of Cj, 0 <= Zj <= 1 and
+ * 0 <= xi <= 1, where !xi is 1 - xi. Hard clauses are weighted like in the evaluation
+ * ({@link CnfFormula#weight(int)}), so the bounds can be computed for every solver in the same way.
+ * <p>
+ * For multipliers 0 <= yj <= wj the Lagrangian dual of the program is
+ * sum(wj - yj) + sum(yj * negated literals of Cj) + sum over i of max(0, ci) with
+ * ci = sum(yj for Cj containing xi) - sum(yj for Cj containing !xi).
+ * It is an upper bound of the optimum for every such y, so any dual values give a valid duality gap.
+ */
+public class LPDuality {
+    // Tolerance for rounding errors of the solvers when rounding a bound down to an integer weight
+    private static final double BOUND_EPSILON = 1e-6;
+
+    /**
+     * @param formula the equation
+     * @param x       the values of the variables, clamped to [0, 1]
+     * @return the objective sum(wj * min(1, sum of the literals of Cj)) of the best Z-values for x
+     */
+    public static double primalValue(CnfFormula formula, double[] x) {
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        double value = 0.0;
+        for (int j = 0; j < formula.getM(); ++j) {
+            double literalSum = 0.0;
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1] && literalSum < 1.0; ++i) {
+                double xi = Math.min(1.0, Math.max(0.0, x[CnfFormula.variableOf(literals[i])]));
+                literalSum += CnfFormula.isNegated(literals[i]) ? 1.0 - xi : xi;
+            }
+            value += formula.weight(j) * Math.min(1.0, literalSum);
+        }
+        return value;
+    }
+
+    /**
+     * @param formula the equation
+     * @param y       the multipliers of the clause constraints, clamped to [0, wj]
+     * @return an upper bound of the optimum of the relaxed linear program
+     */
+    public static double dualBound(CnfFormula formula, double[] y) {
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        double[] coefficients = new double[formula.getN()];
+        double bound = 0.0;
+        for (int j = 0; j < formula.getM(); ++j) {
+            double weight = formula.weight(j);
+            double yj = Math.min(weight, Math.max(0.0, y[j]));
+            bound += weight - yj;
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                int variable = CnfFormula.variableOf(literals[i]);
+                if (CnfFormula.isNegated(literals[i])) {
+                    bound += yj;
+                    coefficients[variable] -= yj;
+                } else {
+                    coefficients[variable] += yj;
+                }
+            }
+        }
+        for (double coefficient : coefficients) {
+            bound += Math.max(0.0, coefficient);
+        }
+        return bound;
+    }
+
+    /**
+     * @return the gap between an upper bound and an objective value relative to the bound
+     */
+    public static double relativeGap(double primalValue, double dualBound) {
+        return Math.max(0.0, dualBound - primalValue) / Math.max(1.0, Math.abs(dualBound));
+    }
+
+    /**
+     * @param formula the equation
+     * @param lp      a solution of the relaxed linear program of the equation
+     * @return the highest satisfied weight an assignment can have according to the LP solution, or Long.MAX_VALUE
+     * if the solution doesn't give a bound
+     */
+    public static long satisfiedWeightBound(CnfFormula formula, LPSolverResult lp) {
+        if (lp.status != CpSolverStatus.OPTIMAL) {
+            return Long.MAX_VALUE;
+        }
+        // The objective of the LP includes the hard clauses with their effective weight
+        double objective = 0.0;
+        for (int j = 0; j < lp.zValues.length; ++j) {
+            objective += formula.weight(j) * lp.zValues[j];
+        }
+        // A solver that stops at a relative gap only gives a bound up to that gap. FirstOrderLPBackend reports the gap
+        // of the whole objective. GLOP, PDLP and CP-SAT report it for the soft objective only, their hard clauses
+        // have no objective coefficient. Widening the whole objective is valid for both, only looser for the latter.
+        double gap = Double.isNaN(lp.dualityGap) ? 0.0 : lp.dualityGap;
+        if (gap >= 1.0) {
+            return Long.MAX_VALUE;
+        }
+        double bound = objective / (1.0 - gap);
+        long satisfiedWeight = (long) Math.floor(bound + BOUND_EPSILON * Math.max(1.0, bound));
+        return Math.min(satisfiedWeight, formula.getTotalWeight());
+    }
+}
@@ -0,0 +1,174 @@
+package de.theoinf.rand;
+
+import com.google.ortools.sat.CpSolverStatus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stores solver results on disk so they can be reused by later runs and by other processes on the same machine.
+ * <p>
+ * Every result is stored in its own file named after the digest of the equation, the solver and its parameters.
+ * Files are written to a temporary file first and atomically renamed, so readers never see partially written results.
+ * The binary format is:
+ * <pre>
+ *     int    magic ("LPR1")
+ *     int    status (CpSolverStatus number)
+ *     int    number of x-values
+ *     int    number of z-values
+ *     double duality gap (NaN if unknown)
+ *     double x-values...
+ *     double z-values...
+ * </pre>
+ * Results are read back through a memory-mapped buffer.
+ * <p>
+ * Only final results (OPTIMAL or INFEASIBLE) are stored. A FEASIBLE result only means the time limit was reached, so a
+ * later run, maybe with a longer timeout, has to solve again. Final results don't depend on the time limit, so it
+ * isn't part of the key.
+ */
+public class LPResultStore {
+    private static final int MAGIC = 0x4C505231; // "LPR1"
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + Double.BYTES;
+    private static final String FILE_EXTENSION = ".lpr";
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+
+    /**
+     * @param directory the directory to store the results in. Created if it doesn't exist.
+     */
+    public LPResultStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create result store directory " + directory, e);
+        }
+    }
+
+    /**
+     * @param formula the solved equation
+     * @param solver  the solver and all parameters that influence a final result, e.g. "PDLP;threads=4;tolerance=1e-4"
+     * @return the key of the result
+     */
+    public static FormulaDigest key(CnfFormula formula, String solver) {
+        return formula.digest().with(solver);
+    }
+
+    /**
+     * @param key the key of the result
+     * @return the stored result or null if there is no (valid) final result for the key
+     */
+    public LPSolverResult load(FormulaDigest key) {
+        try (FileChannel channel = FileChannel.open(fileOf(key), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                return null;
+            }
+            CpSolverStatus status = CpSolverStatus.forNumber(buffer.getInt());
+            int xCount = buffer.getInt();
+            int zCount = buffer.getInt();
+            if (status == null || xCount < 0 || zCount < 0
+                    || size != HEADER_SIZE + ((long) xCount + zCount) * Double.BYTES) {
+                return null;
+            }
+
+            var result = new LPSolverResult();
+            result.status = status;
+            result.dualityGap = buffer.getDouble();
+            DoubleBuffer values = buffer.asDoubleBuffer();
+            result.xValues = new double[xCount];
+            values.get(result.xValues);
+            result.zValues = new double[zCount];
+            values.get(result.zValues);
+            return result;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read result " + key, e);
+        }
+    }
+
+    /**
+     * @return true if the status doesn't depend on the time limit
+     */
+    private static boolean isFinal(CpSolverStatus status) {
+        return status == CpSolverStatus.OPTIMAL || status == CpSolverStatus.INFEASIBLE;
+    }
+
+    /**
+     * Stores a result if it's OPTIMAL or INFEASIBLE. FEASIBLE, UNKNOWN and MODEL_INVALID results are not stored.
+     *
+     * @param key    the key of the result
+     * @param result the result to store
+     */
+    public void store(FormulaDigest key, LPSolverResult result) {
+        if (!isFinal(result.status)) {
+            return;
+        }
+
+        Path temporaryFile = null;
+        try {
+            temporaryFile = Files.createTempFile(directory, key.toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+                buffer.putInt(MAGIC)
+                        .putInt(result.status.getNumber())
+                        .putInt(result.xValues.length)
+                        .putInt(result.zValues.length)
+                        .putDouble(result.dualityGap);
+                for (double x : result.xValues) {
+                    putDouble(channel, buffer, x);
+                }
+                for (double z : result.zValues) {
+                    putDouble(channel, buffer, z);
+                }
+                write(channel, buffer);
+                channel.force(false);
+            }
+            Files.move(temporaryFile, fileOf(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store result " + key, e);
+        } finally {
+            if (temporaryFile != null) {
+                try {
+                    Files.deleteIfExists(temporaryFile);
+                } catch (IOException ignored) {
+                    // Only a leftover temporary file
+                }
+            }
+        }
+    }
+
+    private static void putDouble(FileChannel channel, ByteBuffer buffer, double value) throws IOException {
+        if (buffer.remaining() < Double.BYTES) {
+            write(channel, buffer);
+        }
+        buffer.putDouble(value);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private Path fileOf(FormulaDigest key) {
+        return directory.resolve(key + FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,140 @@
+package de.theoinf.rand;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A thread-safe cache for solver results keyed by the digest of the solved equation.
+ * <p>
+ * Every key is solved only once: concurrent callers asking for a key that is currently being solved wait for that
+ * solution instead of solving it again. The cache is bounded by the total number of stored x- and z-values and
+ * evicts the least recently used results first.
+ */
+public class LPSolutionCache {
+    private final long maxWeight;
+    // Access ordered, so iteration starts at the least recently used entry
+    private final Map<FormulaDigest, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight the maximum number of x- and z-values of all cached results
+     */
+    public LPSolutionCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the cached result for the key or solves it. Only one caller solves a key, all other callers wait for
+     * its result. If solving fails the exception is passed to all waiting callers and nothing is cached.
+     *
+     * @param key    the digest of the equation (and solver parameters)
+     * @param solver solves the equation if it isn't cached
+     * @return the cached or new solver result
+     */
+    public LPSolverResult get(FormulaDigest key, Supplier<LPSolverResult> solver) {
+        Entry entry;
+        boolean solveHere = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                solveHere = true;
+            }
+        }
+
+        if (!solveHere) {
+            hits.increment();
+            try {
+                return entry.result.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        misses.increment();
+        LPSolverResult result;
+        try {
+            result = solver.get();
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                entries.remove(key, entry);
+            }
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+
+        synchronized (this) {
+            entry.weight = weigh(result);
+            // The entry might have been removed by clear() in the meantime
+            if (entries.get(key) == entry) {
+                weight += entry.weight;
+                evict();
+            }
+        }
+        entry.result.complete(result);
+        return result;
+    }
+
+    /**
+     * Removes all results from the cache. Results that are being solved are still passed to their waiting callers.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Removes the least recently used solved entries until the weight limit is met.
+     * Entries that are still being solved have no weight yet and are skipped.
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.weight > 0) {
+                iterator.remove();
+                weight -= entry.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    private static long weigh(LPSolverResult result) {
+        return Math.max(1, (long) result.xValues.length + result.zValues.length);
+    }
+
+    private static class Entry {
+        final CompletableFuture<LPSolverResult> result = new CompletableFuture<>();
+        long weight;
+    }
+}
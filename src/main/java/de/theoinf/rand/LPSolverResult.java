@@ -2,16 +2,45 @@ package de.theoinf.rand;
 
 import com.google.ortools.sat.CpSolverStatus;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.function.DoubleUnaryOperator;
 
 public class LPSolverResult {
-    public List<Double> xValues;
-    public List<Double> zValues;
+    private static final double[] NO_VALUES = new double[0];
+
+    /**
+     * The values of x1...xn, empty if the solver failed. Must not be modified after rounding with this result.
+     */
+    public double[] xValues;
+    /**
+     * The values of Z1...Zm, empty if the solver failed
+     */
+    public double[] zValues;
     public CpSolverStatus status;
+    /**
+     * The gap between the objective and the best known upper bound relative to the bound, NaN if the solver
+     * doesn't report a bound
+     */
+    public double dualityGap = Double.NaN;
+
+    // The rounding table of the last used pi
+    private volatile RoundingTable roundingTable;
 
     public LPSolverResult() {
-        this.xValues = new LinkedList<>();
-        this.zValues = new LinkedList<>();
+        this.xValues = NO_VALUES;
+        this.zValues = NO_VALUES;
+    }
+
+    /**
+     * @param pi the function pi for Algorithm B
+     * @return the rounding probabilities of the x-values. Computed once and reused as long as the same pi instance is
+     * used.
+     */
+    public RoundingTable getRoundingTable(DoubleUnaryOperator pi) {
+        RoundingTable table = roundingTable;
+        if (table == null || table.getPi() != pi) {
+            table = new RoundingTable(xValues, pi);
+            roundingTable = table;
+        }
+        return table;
     }
 }
@@ -0,0 +1,220 @@
+package de.theoinf.rand;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WalkSAT-style local search with a tabu list, used to improve the result of an approximation algorithm.
+ * <p>
+ * Every step picks a random false clause and flips one of its variables: a variable that doesn't make any true clause
+ * false if there is one, otherwise a random variable with probability {@link #NOISE}, otherwise the variable that
+ * makes the least weight of true clauses false. Recently flipped variables are tabu unless flipping them gives a new
+ * best.
+ * <p>
+ * The number of true literals of every clause and the weighted make/break score of every variable are updated
+ * incrementally, so a flip costs O(occurrences of the variable) instead of evaluating all clauses again. For clauses with a single
+ * true literal that literal's variable is found through the XOR of the variables of all true literals, so a variable
+ * is expected to appear at most once in every clause.
+ */
+public class LocalSearch {
+    private static final double NOISE = 0.3;
+    private static final int TABU_TENURE = 10;
+    // How many flips to do between two checks of the timeout
+    private static final int TIMEOUT_CHECK_INTERVAL = 1024;
+
+    private final CnfFormula formula;
+    private final int[] clauseOffsets;
+    private final int[] literals;
+    private final int[] occurrenceOffsets;
+    private final int[] occurrences;
+    private final long[] weights;
+
+    private final boolean[] variables;
+    private final int[] trueLiterals;
+    private final int[] trueVariablesXor;
+    // make: weight of the false clauses that become true by flipping; break: weight of the true clauses that become false
+    private final long[] make;
+    private final long[] breaks;
+    private final long[] lastFlip;
+
+    // The non-empty false clauses and the position of every clause in that list (-1 for true and empty clauses)
+    private final int[] falseClauses;
+    private final int[] falseClausePositions;
+    private int falseClauseCount;
+    private long falseWeight;
+
+    private LocalSearch(CnfFormula formula, boolean[] start) {
+        this.formula = formula;
+        this.clauseOffsets = formula.getClauseOffsets();
+        this.literals = formula.getLiterals();
+        this.occurrenceOffsets = formula.getOccurrenceOffsets();
+        this.occurrences = formula.getOccurrences();
+        this.weights = formula.getEffectiveWeights();
+
+        int m = formula.getM();
+        int n = formula.getN();
+        this.variables = start.clone();
+        this.trueLiterals = new int[m];
+        this.trueVariablesXor = new int[m];
+        this.make = new long[n];
+        this.breaks = new long[n];
+        this.lastFlip = new long[n];
+        Arrays.fill(lastFlip, Long.MIN_VALUE / 2);
+        this.falseClauses = new int[m];
+        this.falseClausePositions = new int[m];
+
+        for (int j = 0; j < m; ++j) {
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                if (isTrue(literals[i])) {
+                    ++trueLiterals[j];
+                    trueVariablesXor[j] ^= CnfFormula.variableOf(literals[i]);
+                }
+            }
+            falseClausePositions[j] = -1;
+            if (clauseOffsets[j + 1] == clauseOffsets[j]) {
+                // An empty clause is false for every assignment, no flip can change it
+                falseWeight += weight(j);
+            } else if (trueLiterals[j] == 0) {
+                addFalseClause(j);
+                changeMake(j, weight(j));
+            } else if (trueLiterals[j] == 1) {
+                breaks[trueVariablesXor[j]] += weight(j);
+            }
+        }
+    }
+
+    /**
+     * Improves a variable assignment by local search
+     *
+     * @param formula       the equation to solve
+     * @param start         the variable assignment to start from
+     * @param seed          a seed for the random number generator to get deterministic random results
+     * @param maxFlips      the maximum number of variable flips
+     * @param timeoutMillis the maximum run time in milliseconds
+     * @return the best assignment found, at least as good as start
+     */
+    public static MaxSatResult improve(CnfFormula formula, MaxSatResult start, long seed, long maxFlips,
+                                       long timeoutMillis) {
+        return new LocalSearch(formula, start.getXValues()).run(new SplittableRandom(seed), maxFlips, timeoutMillis);
+    }
+
+    private MaxSatResult run(SplittableRandom random, long maxFlips, long timeoutMillis) {
+        long start = System.nanoTime();
+        // Saturates for huge timeouts, compared as elapsed time so it can't overflow
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long totalWeight = formula.getTotalWeight();
+        long bestWeight = totalWeight - falseWeight;
+        boolean[] bestVariables = variables.clone();
+
+        for (long flip = 0; flip < maxFlips && falseClauseCount > 0; ++flip) {
+            if (flip % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() - start > timeoutNanos) {
+                break;
+            }
+            int clause = falseClauses[random.nextInt(falseClauseCount)];
+            int variable = pickVariable(clause, random, flip, bestWeight - (totalWeight - falseWeight));
+            flip(variable);
+            lastFlip[variable] = flip;
+
+            if (totalWeight - falseWeight > bestWeight) {
+                bestWeight = totalWeight - falseWeight;
+                System.arraycopy(variables, 0, bestVariables, 0, variables.length);
+            }
+        }
+
+        return new MaxSatResult(bestWeight, bestVariables);
+    }
+
+    /**
+     * @param clause       a false clause, which is never empty
+     * @param requiredGain the gain needed for a new best result, tabu variables may be flipped for that gain
+     * @return the variable of the clause to flip
+     */
+    private int pickVariable(int clause, SplittableRandom random, long flip, long requiredGain) {
+        int start = clauseOffsets[clause];
+        int length = clauseOffsets[clause + 1] - start;
+
+        int best = -1;
+        long bestBreak = Long.MAX_VALUE;
+        long bestMake = -1;
+        for (int i = start; i < start + length; ++i) {
+            int variable = CnfFormula.variableOf(literals[i]);
+            if (breaks[variable] == 0) {
+                return variable;
+            }
+            boolean tabu = flip - lastFlip[variable] <= TABU_TENURE
+                    && make[variable] - breaks[variable] <= requiredGain;
+            if (!tabu && (breaks[variable] < bestBreak
+                    || (breaks[variable] == bestBreak && make[variable] > bestMake))) {
+                best = variable;
+                bestBreak = breaks[variable];
+                bestMake = make[variable];
+            }
+        }
+
+        if (best < 0 || random.nextDouble() < NOISE) {
+            return CnfFormula.variableOf(literals[start + random.nextInt(length)]);
+        }
+        return best;
+    }
+
+    private void flip(int variable) {
+        boolean wasTrue = variables[variable];
+        variables[variable] = !wasTrue;
+        for (int o = occurrenceOffsets[variable]; o < occurrenceOffsets[variable + 1]; ++o) {
+            int clause = occurrences[o] >>> 1;
+            boolean negated = (occurrences[o] & 1) != 0;
+            trueVariablesXor[clause] ^= variable;
+            if (wasTrue != negated) {
+                // The literal turns FALSE
+                int count = --trueLiterals[clause];
+                if (count == 0) {
+                    breaks[variable] -= weight(clause);
+                    addFalseClause(clause);
+                    changeMake(clause, weight(clause));
+                } else if (count == 1) {
+                    breaks[trueVariablesXor[clause]] += weight(clause);
+                }
+            } else {
+                // The literal turns TRUE
+                int count = ++trueLiterals[clause];
+                if (count == 1) {
+                    breaks[variable] += weight(clause);
+                    removeFalseClause(clause);
+                    changeMake(clause, -weight(clause));
+                } else if (count == 2) {
+                    breaks[trueVariablesXor[clause] ^ variable] -= weight(clause);
+                }
+            }
+        }
+    }
+
+    private void changeMake(int clause, long delta) {
+        for (int i = clauseOffsets[clause]; i < clauseOffsets[clause + 1]; ++i) {
+            make[CnfFormula.variableOf(literals[i])] += delta;
+        }
+    }
+
+    private long weight(int clause) {
+        return weights == null ? 1 : weights[clause];
+    }
+
+    private boolean isTrue(int literal) {
+        return variables[CnfFormula.variableOf(literal)] != CnfFormula.isNegated(literal);
+    }
+
+    private void addFalseClause(int clause) {
+        falseClausePositions[clause] = falseClauseCount;
+        falseClauses[falseClauseCount++] = clause;
+        falseWeight += weight(clause);
+    }
+
+    private void removeFalseClause(int clause) {
+        int position = falseClausePositions[clause];
+        int last = falseClauses[--falseClauseCount];
+        falseClauses[position] = last;
+        falseClausePositions[last] = position;
+        falseClausePositions[clause] = -1;
+        falseWeight -= weight(clause);
+    }
+}
@@ -2,28 +2,39 @@ package de.theoinf.rand;
 
 import com.google.ortools.sat.CpSolverStatus;
 
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
-import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
 @SuppressWarnings({"UnnecessaryLocalVariable", "SameParameterValue"})
 public class Main {
+    // Maximum number of local search flips to improve the best result of each algorithm with, set with
+    // -Dmaxsat.localSearch.flips=<flips>. 0 (the default) disables the local search.
+    private static final long LOCAL_SEARCH_FLIPS = Long.getLong("maxsat.localSearch.flips", 0);
+    private static final long LOCAL_SEARCH_TIMEOUT_MILLIS = 100;
+    // With -Dmaxsat.preprocess=true the algorithms solve the simplified equation, results are printed for the original
+    private static PreprocessedFormula preprocessing;
+    // Stops sampling early with -Dmaxsat.adaptive=true, null to always run all repetitions
+    private static StoppingRule stoppingRule;
+    // Runs the repetitions in worker processes, null to run them in this process
+    private static ShardCoordinator coordinator;
 
     public static void main(String[] args) {
         // -------------------------------------------------------------------------------------
         // Generate (n,m)-equations in conjunctive normal form to solve
 
         // n = 5, m = 21, k = 3
-        Integer[][] solvableEquation = getSolvableEquation();
+        CnfFormula solvableEquation = CnfFormula.fromEquation(getSolvableEquation());
 
         // n = 2, m = 4, k = 2
         // (x1 v x2) ^ (x1 v !x2) ^ (!x1 v x2) ^ (!x1 v !x2)
-        Integer[][] unsolvableEquation = getUnsolvableEquation();
+        CnfFormula unsolvableEquation = CnfFormula.fromEquation(getUnsolvableEquation());
 
         // Generates an equation with 20 variables, 3000 clauses and 3 literals per clause
         var bigEquationK3 = generateEquation(20, 3000, 3);
@@ -33,49 +44,218 @@ public class Main {
 
         // -------------------------------------------------------------------------------------
 
-        // Choose which equation to solve and how often to run the algorithms
-        final Integer[][] equationToSolve = solvableEquation;
+        // Reuse LP/ILP solutions across runs if a directory is given with -Dmaxsat.resultStore=<directory>
+        String resultStoreDirectory = System.getProperty("maxsat.resultStore");
+        if (resultStoreDirectory != null) {
+            ILPSolver.resultStore = new LPResultStore(Path.of(resultStoreDirectory));
+        }
+        RandomisedMaxSATApproximationAlgorithms.lpBackend = createLPBackend();
+
+        // Choose which equation to solve, how often to run the algorithms and on how many threads.
+        // A DIMACS .cnf/.wcnf file (optionally gzipped) given as first argument is solved instead.
+        final CnfFormula equationToSolve = args.length > 0
+                ? DimacsLoader.load(Path.of(args[0]))
+                : solvableEquation;
         final int repetitions = 1000;
-        runAlgorithmsForEquation(equationToSolve, repetitions);
+        final int threads = Runtime.getRuntime().availableProcessors();
+        Metrics.Exporter metricsExporter = startMetricsExporter();
+        // Run as solve service with -Dmaxsat.serve=stdio or -Dmaxsat.serve=<port>, see SolveService.
+        // The socket only accepts local connections unless -Dmaxsat.serve.bind=<address> is given.
+        String serve = System.getProperty("maxsat.serve");
+        // Run a parameter sweep with -Dmaxsat.sweep=<spec file>, see SweepRunner
+        String sweep = System.getProperty("maxsat.sweep");
+        try (var runner = new RepetitionRunner(threads)) {
+            if (sweep != null) {
+                int failed = SweepRunner.load(Path.of(sweep)).run(runner);
+                if (failed > 0) {
+                    System.err.printf("%d sweep cells failed, start the sweep again to retry them%n", failed);
+                }
+            } else if (serve == null) {
+                try (ShardCoordinator workers = createCoordinator()) {
+                    coordinator = workers;
+                    runAlgorithmsForEquation(equationToSolve, repetitions, runner);
+                }
+            } else if (serve.equals("stdio")) {
+                new SolveService(runner).serveStandardStreams();
+            } else {
+                String bind = System.getProperty("maxsat.serve.bind");
+                new SolveService(runner).serveSocket(Integer.parseInt(serve),
+                        bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(sweep != null ? "The sweep failed"
+                    : serve != null ? "The solve service failed" : "The workers failed", e);
+        } finally {
+            if (metricsExporter != null) {
+                metricsExporter.close();
+            }
+        }
+    }
+
+    /**
+     * Prints metrics every -Dmaxsat.metrics.interval=<seconds> (default 10) as text
+     * or as JSON with -Dmaxsat.metrics.format=json, and once more at the end
+     *
+     * @return the exporter or null if metrics are disabled
+     */
+    private static Metrics.Exporter startMetricsExporter() {
+        if (!Metrics.ENABLED) {
+            return null;
+        }
+        long intervalMillis = Math.round(Double.parseDouble(System.getProperty("maxsat.metrics.interval", "10")) * 1000);
+        boolean json = "json".equals(System.getProperty("maxsat.metrics.format"));
+        return Metrics.startExporter(intervalMillis, json, System.err);
+    }
+
+    /**
+     * Chooses the solver for the relaxed linear programs with -Dmaxsat.lp=glop|pdlp|firstorder (default glop).
+     * -Dmaxsat.lp.timeout=<seconds>, -Dmaxsat.lp.threads=<threads> and -Dmaxsat.lp.tolerance=<relative gap>
+     * configure the solver, -Dmaxsat.lp.iterations=<iterations> limits the pure Java first-order solver.
+     */
+    private static LPBackend createLPBackend() {
+        double timeout = Double.parseDouble(System.getProperty("maxsat.lp.timeout", "5.0"));
+        double tolerance = Double.parseDouble(System.getProperty("maxsat.lp.tolerance", "1e-4"));
+        String backend = System.getProperty("maxsat.lp", "glop");
+        switch (backend) {
+            case "glop":
+                return new GlopBackend(timeout);
+            case "pdlp":
+                return new PdlpBackend(timeout,
+                        Integer.getInteger("maxsat.lp.threads", Runtime.getRuntime().availableProcessors()), tolerance);
+            case "firstorder":
+                return new FirstOrderLPBackend(Integer.getInteger("maxsat.lp.iterations", 10_000), tolerance);
+            default:
+                throw new IllegalArgumentException("Unknown LP solver " + backend + ", expected glop, pdlp or firstorder");
+        }
     }
 
-    private static void runAlgorithmsForEquation(Integer[][] equationToUse, int repetitions) {
+    /**
+     * With -Dmaxsat.adaptive=true the randomised algorithms stop before the given number of repetitions once the 95%
+     * confidence interval of the average is narrower than -Dmaxsat.adaptive.width (default 1), the best result reaches
+     * the bound of the relaxed linear program or the best result hasn't improved for -Dmaxsat.adaptive.patience
+     * repetitions (default 4096).
+     *
+     * @return the stopping rule or null if adaptive sampling is disabled
+     */
+    private static StoppingRule createStoppingRule(CnfFormula equation, int repetitions) {
+        if (!Boolean.parseBoolean(System.getProperty("maxsat.adaptive", "false"))) {
+            return null;
+        }
+        double width = Double.parseDouble(System.getProperty("maxsat.adaptive.width", "1.0"));
+        int patience = Integer.parseInt(System.getProperty("maxsat.adaptive.patience", "4096"));
+        long upperBound = LPDuality.satisfiedWeightBound(equation,
+                RandomisedMaxSATApproximationAlgorithms.solveLP(equation));
+        return new StoppingRule(repetitions, width, upperBound, patience);
+    }
+
+    /**
+     * With -Dmaxsat.workers=<count> the repetitions of the randomised algorithms run in that many local worker JVMs,
+     * with -Dmaxsat.workers.connect=<host:port,...> in running solve services. Adaptive stopping isn't used then.
+     *
+     * @return the coordinator of the workers or null to run the repetitions in this process
+     */
+    private static ShardCoordinator createCoordinator() throws IOException {
+        String connect = System.getProperty("maxsat.workers.connect");
+        if (connect != null) {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (String address : connect.split(",")) {
+                int colon = address.lastIndexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("Invalid worker address " + address + ", expected host:port");
+                }
+                addresses.add(new InetSocketAddress(address.substring(0, colon).trim(),
+                        Integer.parseInt(address.substring(colon + 1).trim())));
+            }
+            return ShardCoordinator.connect(addresses);
+        }
+        String workers = System.getProperty("maxsat.workers");
+        return workers == null ? null : ShardCoordinator.startLocal(Integer.parseInt(workers));
+    }
+
+    /**
+     * Simplifies the equation if enabled with -Dmaxsat.preprocess=true. Disabled by default: the randomised
+     * algorithms would then sample assignments of the simplified equation, so their averages would no longer be the
+     * expected values on the given equation.
+     */
+    private static PreprocessedFormula preprocess(CnfFormula equation) {
+        if (!Boolean.parseBoolean(System.getProperty("maxsat.preprocess", "false"))) {
+            return PreprocessedFormula.unchanged(equation);
+        }
+        long startTime = System.nanoTime();
+        PreprocessedFormula preprocessed = Preprocessor.preprocess(equation);
+        long duration = (System.nanoTime() - startTime) / 1000000;
+        var statistics = preprocessed.getStatistics();
+        System.out.printf("Preprocessing in %d ms removed %d duplicate literals and %d tautologies, merged %d clauses " +
+                        "and fixed %d pure literals: n=%d, m=%d remain.%n", duration,
+                statistics.getDuplicateLiterals(), statistics.getTautologies(), statistics.getMergedClauses(),
+                statistics.getPureLiterals(), preprocessed.getFormula().getN(), preprocessed.getFormula().getM());
+        return preprocessed;
+    }
+
+    private static void runAlgorithmsForEquation(CnfFormula equation, int repetitions, RepetitionRunner runner) {
         // Calculate n, m and k for the chosen equation
-        int n = Arrays.stream(equationToUse)
-                .flatMap(Arrays::stream)
-                .mapToInt(Math::abs)
-                .max().orElseThrow();
-        int m = equationToUse.length;
-        int k = equationToUse[0].length;
+        int n = equation.getN();
+        int m = equation.getM();
+        // The length of the longest clause, loaded files can mix clause lengths and have no clauses at all
+        int k = equation.maxClauseLength();
 
         System.out.printf("MaxSAT randomised approximation for (n,m)-equation in conjunctive normal form with n=%d, m=%d, k=%d%n", n, m, k);
+        if (equation.isWeighted()) {
+            System.out.printf("The clauses are weighted with a total soft weight of %d and %d hard clauses.%n",
+                    equation.getTotalSoftWeight(), equation.getHardClauseCount());
+        }
+        preprocessing = preprocess(equation);
+        CnfFormula equationToUse = preprocessing.getFormula();
         // Solves the ILP and prints the result
-        printOptimalSolution(equationToUse, n);
+        printOptimalSolution(equationToUse);
         // Solves the LP and prints superoptimal result
-        printSuperoptimalSolution(equationToUse, n);
+        printSuperoptimalSolution(equationToUse);
+        stoppingRule = createStoppingRule(equationToUse, repetitions);
+
+        // With -Dmaxsat.portfolio=<milliseconds> all algorithms race for the best result within that budget
+        String portfolioBudget = System.getProperty("maxsat.portfolio");
+        if (portfolioBudget != null) {
+            System.out.println("-----------------------------------------------------------------------------------------");
+            runPortfolio(equationToUse, Long.parseLong(portfolioBudget));
+            return;
+        }
 
+        DoubleUnaryOperator pi = x -> x * 0.5 + 0.25; // == 1/2 * x + 1/4
+        if (coordinator != null) {
+            runShardedAlgorithms(equationToUse, repetitions);
+        } else {
+            System.out.println("-----------------------------------------------------------------------------------------");
+            runBatchedAlgorithm(runner, RandomisedMaxSATApproximationAlgorithms::probabilisticRandomisedBatch, "Algorithm A",
+                    repetitions, equationToUse, null);
 
-        //
-        System.out.println("-----------------------------------------------------------------------------------------");
-        runAlgorithm(RandomisedMaxSATApproximationAlgorithms::probabilisticRandomised, "Algorithm A",
-                repetitions, equationToUse, n);
+            System.out.println("-----------------------------------------------------------------------------------------");
+            runBatchedAlgorithm(runner, RandomisedMaxSATApproximationAlgorithms::randomisedRoundingBatch, "Algorithm B[pi(x)=x]",
+                    repetitions, equationToUse, DoubleUnaryOperator.identity());
 
-        System.out.println("-----------------------------------------------------------------------------------------");
-        runAlgorithm(RandomisedMaxSATApproximationAlgorithms::randomisedRounding, "Algorithm B[pi(x)=x]",
-                repetitions, equationToUse, n, Function.identity());
+            System.out.println("-----------------------------------------------------------------------------------------");
+            runBatchedAlgorithm(runner, RandomisedMaxSATApproximationAlgorithms::randomisedRoundingBatch, "Algorithm B[pi(x)=1/2*x+1/4]",
+                    repetitions, equationToUse, pi);
+
+            System.out.println("-----------------------------------------------------------------------------------------");
+            runAlgorithm(runner, RandomisedMaxSATApproximationAlgorithms::algorithmC_all, "Algorithm C_all[pi(x)=x]",
+                    repetitions, equationToUse, DoubleUnaryOperator.identity());
+
+            System.out.println("-----------------------------------------------------------------------------------------");
+            runAlgorithm(runner, RandomisedMaxSATApproximationAlgorithms::algorithmC_pa, "Algorithm C_1/2[pi(x)=x]",
+                    repetitions, equationToUse, DoubleUnaryOperator.identity(), 0.5);
+        }
 
         System.out.println("-----------------------------------------------------------------------------------------");
-        Function<Double, Double> pi = x -> x * 0.5 + 0.25; // == 1/2 * x + 1/4
-        runAlgorithm(RandomisedMaxSATApproximationAlgorithms::randomisedRounding, "Algorithm B[pi(x)=1/2*x+1/4]",
-                repetitions, equationToUse, n, pi);
+        runDerandomisedAlgorithm(RandomisedMaxSATApproximationAlgorithms::probabilisticDerandomised,
+                "Algorithm A derandomised", equationToUse, null);
 
         System.out.println("-----------------------------------------------------------------------------------------");
-        runAlgorithm(RandomisedMaxSATApproximationAlgorithms::algorithmC_all, "Algorithm C_all[pi(x)=x]",
-                repetitions, equationToUse, n, Function.identity());
+        runDerandomisedAlgorithm(RandomisedMaxSATApproximationAlgorithms::randomisedRoundingDerandomised,
+                "Algorithm B[pi(x)=x] derandomised", equationToUse, DoubleUnaryOperator.identity());
 
         System.out.println("-----------------------------------------------------------------------------------------");
-        runAlgorithm(RandomisedMaxSATApproximationAlgorithms::algorithmC_pa, "Algorithm C_1/2[pi(x)=x]",
-                repetitions, equationToUse, n, Function.identity(), 0.5);
+        runDerandomisedAlgorithm(RandomisedMaxSATApproximationAlgorithms::randomisedRoundingDerandomised,
+                "Algorithm B[pi(x)=1/2*x+1/4] derandomised", equationToUse, pi);
     }
 
 
@@ -83,80 +263,283 @@ public class Main {
     // Helper functions
     // -------------------------------------------------------------------------------------
 
-    private static void printOptimalSolution(Integer[][] equationToUse, int n) {
-        final double timeout = 3.0;
-        var optimalResult = ILPSolver.solveCpSat(n, equationToUse, 1, timeout);
+    /**
+     * Solves the ILP with CP-SAT, starting from the better derandomised assignment of Algorithm A and B.
+     * Prints every improving solution while searching. -Dmaxsat.cpsat.timeout=<seconds> (default 3) and
+     * -Dmaxsat.cpsat.workers=<workers> (default: number of processors) configure the search.
+     */
+    private static void printOptimalSolution(CnfFormula equationToUse) {
+        final double timeout = Double.parseDouble(System.getProperty("maxsat.cpsat.timeout", "3.0"));
+        final int workers = Integer.getInteger("maxsat.cpsat.workers", Runtime.getRuntime().availableProcessors());
+
+        var hintParameters = new MaxSatParameters(equationToUse, 0, DoubleUnaryOperator.identity(), 0.0);
+        MaxSatResult hint = RandomisedMaxSATApproximationAlgorithms.probabilisticDerandomised(hintParameters);
+        MaxSatResult roundedHint = RandomisedMaxSATApproximationAlgorithms.randomisedRoundingDerandomised(hintParameters);
+        if (roundedHint.getSatisfiedWeight() > hint.getSatisfiedWeight()) {
+            hint = roundedHint;
+        }
+        if (LOCAL_SEARCH_FLIPS > 0) {
+            hint = LocalSearch.improve(equationToUse, hint, 42, LOCAL_SEARCH_FLIPS, LOCAL_SEARCH_TIMEOUT_MILLIS);
+        }
+
+        // Variable-disjoint components are solved in parallel, with the workers split between them
+        var decomposition = ComponentDecomposition.decompose(equationToUse);
+        final boolean[] hintValues = hint.getXValues();
+        final int componentWorkers = Math.max(1, workers / decomposition.size());
+        CpSatProgressListener progress = decomposition.size() > 1 ? null
+                : (objective, bound, seconds) -> System.out.printf(
+                        "CP-SAT found a soft weight of %d with an upper bound of %d after %.2f seconds.%n",
+                        Math.round(objective), Math.round(bound), seconds);
+        if (decomposition.size() > 1) {
+            System.out.printf("Solving %d independent components with %d CP-SAT workers each.%n",
+                    decomposition.size(), componentWorkers);
+        }
+        var optimalResult = decomposition.solve(component -> ILPSolver.solveCpSat(component.getFormula(), 1, timeout,
+                componentWorkers, component.project(hintValues), progress));
         if (optimalResult.status == CpSolverStatus.UNKNOWN) {
             System.out.printf("Failed to find optimal solution for the ILP in %f seconds. Problem size is too big.%n",
                     timeout);
+        } else if (optimalResult.status == CpSolverStatus.INFEASIBLE) {
+            System.out.println("The hard clauses of the integer linear program can't all be true.");
         } else if (optimalResult.status == CpSolverStatus.OPTIMAL) {
-            System.out.println("The optimal solution of the integer linear program has " +
-                    Math.round(optimalResult.zValues.stream().mapToDouble(d -> d).sum()) + " true clauses.");
+            System.out.println("The optimal solution of the integer linear program has a satisfied weight of " +
+                    Math.round(softObjective(equationToUse, optimalResult)) + ".");
         } else {
-            System.out.println("The optimal solution of the integer linear program has >= " +
-                    Math.round(optimalResult.zValues.stream().mapToDouble(d -> d).sum()) + " true clauses. " +
-                    "Timed out before finding the optimal solution.");
+            System.out.printf("The optimal solution of the integer linear program has a satisfied weight of >= %d. " +
+                            "Timed out before proving optimality with a remaining gap of %.3g.%n",
+                    Math.round(softObjective(equationToUse, optimalResult)), optimalResult.dualityGap);
         }
     }
 
 
-    private static void printSuperoptimalSolution(Integer[][] equationToUse, int n) {
-        var lpResult = ILPSolver.solveGLOP(n, equationToUse, 5.0);
-        System.out.println("The solution of the relaxed linear program has a (sum of Zj)=" +
-                lpResult.zValues.stream().mapToDouble(d -> d).sum());
+    private static void printSuperoptimalSolution(CnfFormula equationToUse) {
+        var lpResult = RandomisedMaxSATApproximationAlgorithms.solveLP(equationToUse);
+        System.out.printf("The solution of the relaxed linear program has a (sum of wj * Zj)=%s (%s, %s, duality gap %.3g)%n",
+                softObjective(equationToUse, lpResult), RandomisedMaxSATApproximationAlgorithms.lpBackend.getName(),
+                lpResult.status, lpResult.dualityGap);
+    }
+
+
+    private static void runPortfolio(CnfFormula equation, long budgetMillis) {
+        var pis = List.of(DoubleUnaryOperator.identity(), x -> x * 0.5 + 0.25);
+        int cpSatWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1 - pis.size());
+        long startTime = System.nanoTime();
+        var result = new PortfolioSolver(equation, pis, cpSatWorkers).solve(budgetMillis, 42);
+        long duration = (System.nanoTime() - startTime) / 1000000;
+        System.out.printf("Ran the portfolio for %d of %d ms.%n", duration, budgetMillis);
+        System.out.printf("Portfolio - best: %s%s, found by %s after %d ms%n",
+                formatWeight(result.getBestResult().getSatisfiedWeight()), result.isOptimal() ? " (optimal)" : "",
+                result.getStrategy(), result.getMillisToBest());
+
+        printBestAssignment(equation, improveByLocalSearch(equation, result.getBestResult()));
+    }
+
+
+    /**
+     * @return the sum of wj * Zj over all soft clauses of the original equation, which is the sum of Zj for
+     * unweighted equations. Soft clauses removed by the preprocessing count as Zj = 1.
+     */
+    private static double softObjective(CnfFormula equation, LPSolverResult result) {
+        double objective = preprocessing.getFixedSoftWeight();
+        int j = 0;
+        for (double z : result.zValues) {
+            if (!equation.isHard(j)) {
+                objective += equation.weight(j) * z;
+            }
+            ++j;
+        }
+        return objective;
+    }
+
+
+    /**
+     * @param simplifiedWeight a satisfied weight of the simplified equation
+     * @return the satisfied weight in the original equation, split into soft weight and false hard clauses for
+     * equations with hard clauses
+     */
+    private static String formatWeight(long simplifiedWeight) {
+        CnfFormula equation = preprocessing.getOriginal();
+        long satisfiedWeight = preprocessing.originalWeight(simplifiedWeight);
+        if (equation.getHardClauseCount() == 0) {
+            return Long.toString(satisfiedWeight);
+        }
+        return String.format("%d (%d false hard clauses)", equation.softWeightOf(satisfiedWeight),
+                equation.falseHardClausesOf(satisfiedWeight));
     }
 
 
     private static void runAlgorithm(
-            Function<MaxSatParameters, MaxSatResult> algorithm,
+            RepetitionRunner runner,
+            SamplingAlgorithm algorithm,
             String algorithmName,
             int repetitions,
-            Integer[][] equation,
-            int n
+            CnfFormula equation
     ) {
-        runAlgorithm(algorithm, algorithmName, repetitions, equation, n, null, 0.0);
+        runAlgorithm(runner, algorithm, algorithmName, repetitions, equation, null, 0.0);
     }
 
 
     private static void runAlgorithm(
-            Function<MaxSatParameters, MaxSatResult> algorithm,
+            RepetitionRunner runner,
+            SamplingAlgorithm algorithm,
             String algorithmName,
             int repetitions,
-            Integer[][] equation,
-            int n,
-            Function<Double, Double> pi
+            CnfFormula equation,
+            DoubleUnaryOperator pi
     ) {
-        runAlgorithm(algorithm, algorithmName, repetitions, equation, n, pi, 0.0);
+        runAlgorithm(runner, algorithm, algorithmName, repetitions, equation, pi, 0.0);
     }
 
 
     private static void runAlgorithm(
-            Function<MaxSatParameters, MaxSatResult> algorithm,
+            RepetitionRunner runner,
+            SamplingAlgorithm algorithm,
+            String algorithmName,
+            int repetitions,
+            CnfFormula equation,
+            DoubleUnaryOperator pi,
+            double pa
+    ) {
+        long startTime = System.nanoTime();
+        var timedAlgorithm = Metrics.timedSampling("algorithm." + algorithmName, algorithm);
+        RepetitionSummary summary = stoppingRule == null
+                ? runner.runSampling(timedAlgorithm, repetitions, 42, equation, pi, pa)
+                : runner.runSamplingAdaptive(timedAlgorithm, stoppingRule, 42, equation, pi, pa);
+        long endTime = System.nanoTime();
+        printSummary(algorithmName, summary, (endTime - startTime) / 1000000);
+        printBestAssignment(equation, improveByLocalSearch(equation, summary.getBestResult()));
+    }
+
+
+    /**
+     * Runs an algorithm that draws and evaluates 64 assignments per call until the number of repetitions is reached.
+     * Only the best assignment is extracted from the bit-slices.
+     */
+    private static void runBatchedAlgorithm(
+            RepetitionRunner runner,
+            Function<MaxSatParameters, MaxSatBatchResult> algorithm,
+            String algorithmName,
+            int repetitions,
+            CnfFormula equation,
+            DoubleUnaryOperator pi
+    ) {
+        long startTime = System.nanoTime();
+        var timedAlgorithm = Metrics.timed("algorithm." + algorithmName, algorithm);
+        RepetitionSummary summary = stoppingRule == null
+                ? runner.runBatched(timedAlgorithm, repetitions, 42, equation, pi)
+                : runner.runBatchedAdaptive(timedAlgorithm, stoppingRule, 42, equation, pi);
+        long endTime = System.nanoTime();
+        printSummary(algorithmName, summary, (endTime - startTime) / 1000000);
+        printBestAssignment(equation, improveByLocalSearch(equation, summary.getBestResult()));
+    }
+
+
+    /**
+     * Runs the randomised algorithms on the workers of {@link #coordinator}
+     */
+    private static void runShardedAlgorithms(CnfFormula equation, int repetitions) {
+        System.out.printf("Running the repetitions on %d workers.%n", coordinator.getWorkerCount());
+        runShardedAlgorithm("Algorithm A", "A", repetitions, equation, 1.0, 0.0, 0.0);
+        runShardedAlgorithm("Algorithm B[pi(x)=x]", "B", repetitions, equation, 1.0, 0.0, 0.0);
+        runShardedAlgorithm("Algorithm B[pi(x)=1/2*x+1/4]", "B", repetitions, equation, 0.5, 0.25, 0.0);
+        runShardedAlgorithm("Algorithm C_all[pi(x)=x]", "C_all", repetitions, equation, 1.0, 0.0, 0.0);
+        runShardedAlgorithm("Algorithm C_1/2[pi(x)=x]", "C_pa", repetitions, equation, 1.0, 0.0, 0.5);
+    }
+
+
+    /**
+     * Runs an algorithm on the workers of {@link #coordinator}. pi(x) = slope * x + offset.
+     */
+    private static void runShardedAlgorithm(
             String algorithmName,
+            String algorithm,
             int repetitions,
-            Integer[][] equation,
-            int n,
-            Function<Double, Double> pi,
+            CnfFormula equation,
+            double slope,
+            double offset,
             double pa
     ) {
-        Random random = new Random(new Random(42).nextLong());
+        System.out.println("-----------------------------------------------------------------------------------------");
         long startTime = System.nanoTime();
-        List<MaxSatResult> results = new LinkedList<>();
-        for (int i = 0; i < repetitions; ++i) {
-            results.add(algorithm.apply(new MaxSatParameters(equation, n, random.nextLong(), pi, pa)));
+        RepetitionSummary summary;
+        try {
+            summary = coordinator.run(equation, algorithm, repetitions, 42, slope, offset, pa);
+        } catch (IOException e) {
+            throw new UncheckedIOException("The workers failed to run " + algorithmName, e);
         }
         long endTime = System.nanoTime();
+        printSummary(algorithmName, summary, (endTime - startTime) / 1000000);
+        printBestAssignment(equation, improveByLocalSearch(equation, summary.getBestResult()));
+    }
+
+
+    /**
+     * Runs a deterministic algorithm once
+     */
+    private static void runDerandomisedAlgorithm(
+            Function<MaxSatParameters, MaxSatResult> algorithm,
+            String algorithmName,
+            CnfFormula equation,
+            DoubleUnaryOperator pi
+    ) {
+        long startTime = System.nanoTime();
+        MaxSatResult result = Metrics.timed("algorithm." + algorithmName, algorithm)
+                .apply(new MaxSatParameters(equation, 0, pi, 0.0));
+        long endTime = System.nanoTime();
         long duration = (endTime - startTime) / 1000000;  //divide by 1000000 to get milliseconds.
         System.out.printf("Ran %s for %d ms.%n", algorithmName, duration);
+        System.out.printf("%s - result: %s%n", algorithmName, formatWeight(result.getSatisfiedWeight()));
+
+        printBestAssignment(equation, improveByLocalSearch(equation, result));
+    }
+
+
+    /**
+     * @param duration the duration in milliseconds
+     */
+    private static void printSummary(String algorithmName, RepetitionSummary summary, long duration) {
+        System.out.printf("Ran %s for %d ms.%n", algorithmName, duration);
+        if (summary.getStopReason() != null) {
+            System.out.printf("%s - stopped after %d repetitions: %s%n", algorithmName, summary.getRepetitions(),
+                    summary.getStopReason());
+        }
+
+        MaxSatResult bestResult = summary.getBestResult();
+        double averageWeightResult = preprocessing.originalWeight(summary.getAverageWeight());
+        System.out.printf("%s - best: %s; average: %f%n", algorithmName,
+                formatWeight(bestResult.getSatisfiedWeight()), averageWeightResult);
+        System.out.printf("%s - worst: %s; standard deviation: %f; median: %d%n", algorithmName,
+                formatWeight(summary.getMinWeight()), summary.getStandardDeviation(),
+                preprocessing.originalWeight(summary.getHistogram().getQuantile(0.5)));
+    }
 
-        MaxSatResult bestResult = results.stream().max(Comparator.comparing(MaxSatResult::getTrueClauses)).orElseThrow();
-        double averageTrueClausesResult = results.stream().mapToInt(MaxSatResult::getTrueClauses).average().orElseThrow();
-        System.out.printf("%s - best: %d; average: %f%n", algorithmName, bestResult.getTrueClauses(), averageTrueClausesResult);
 
-        if (Arrays.stream(equation).mapToInt(clause -> clause.length).max().orElseThrow() <= 20) {
+    /**
+     * Improves the result by local search if enabled with -Dmaxsat.localSearch.flips=<flips> and prints the
+     * improved weight
+     *
+     * @return the improved result, or the given result if local search is disabled
+     */
+    private static MaxSatResult improveByLocalSearch(CnfFormula equation, MaxSatResult result) {
+        if (LOCAL_SEARCH_FLIPS <= 0) {
+            return result;
+        }
+        long startTime = System.nanoTime();
+        MaxSatResult improved = LocalSearch.improve(equation, result, 42, LOCAL_SEARCH_FLIPS,
+                LOCAL_SEARCH_TIMEOUT_MILLIS);
+        long duration = (System.nanoTime() - startTime) / 1000000;
+        System.out.printf("Improved to a satisfied weight of %s by local search in %d ms.%n",
+                formatWeight(improved.getSatisfiedWeight()), duration);
+        return improved;
+    }
+
+
+    private static void printBestAssignment(CnfFormula equation, MaxSatResult bestResult) {
+        if (equation.maxClauseLength() <= 20) {
+            boolean[] xValues = preprocessing.restore(bestResult.getXValues());
             System.out.print("Best variable assignment: ");
-            for (int i = 0; i < bestResult.getXValues().length; ++i) {
-                System.out.printf("x%d=%s ", i + 1, bestResult.getXValues()[i] ? "TRUE " : "FALSE");
+            for (int i = 0; i < xValues.length; ++i) {
+                System.out.printf("x%d=%s ", i + 1, xValues[i] ? "TRUE " : "FALSE");
             }
             System.out.printf("%n");
         }
@@ -213,45 +596,8 @@ public class Main {
      * @param k the number of literals in each clause
      * @return an (n,m)-equation in KNF/CNF
      */
-    private static Integer[][] generateEquation(int n, int m, int k) {
-        if (k > n) {
-            throw new IllegalArgumentException("Can't generate a valid equation for k > n");
-        }
-
-        Integer[][] equation = new Integer[m][k];
-        Set<Integer> verifyEquationSet = new HashSet<>();
-
-        Random random = new Random(42);
-        int attemptCounter = 0;
-        while (verifyEquationSet.size() != 2 * n) {
-            verifyEquationSet = new HashSet<>();
-            for (int j = 0; j < m; ++j) {
-                for (int i = 0; i < k; ++i) {
-                    int xi;
-                    for (; ; ) {
-                        xi = (random.nextInt(n) + 1) * (random.nextBoolean() ? 1 : -1);
-                        boolean isDuplicate = false;
-                        for (int i2 = 0; i2 < i; ++i2) {
-                            if (Math.abs(xi) == Math.abs(equation[j][i2])) {
-                                isDuplicate = true;
-                                break;
-                            }
-                        }
-                        if (!isDuplicate) {
-                            break;
-                        }
-                    }
-                    equation[j][i] = xi;
-                    verifyEquationSet.add(xi);
-                }
-            }
-            if (++attemptCounter > 1000) {
-                throw new IllegalArgumentException(
-                        String.format("Failed to generate a valid equation for n: %d, m: %d, k: %d", n, m, k));
-            }
-        }
-
-        return equation;
+    static CnfFormula generateEquation(int n, int m, int k) {
+        return generateEquation(n, m, k, k);
     }
 
 
@@ -268,49 +614,7 @@ public class Main {
      * @param kMax the maximum number of literals in each clause (inclusive)
      * @return an (n,m)-equation in KNF/CNF
      */
-    private static Integer[][] generateEquation(int n, int m, int kMin, int kMax) {
-        if (kMax > n) {
-            throw new IllegalArgumentException("Can't generate a valid equation for kMax > n");
-        } else if (kMax < kMin) {
-            throw new IllegalArgumentException("Can't generate a valid equation for kMax < kMin");
-        }
-
-        Random random = new Random(42);
-        Integer[][] equation = new Integer[m][];
-        for (int i = 0; i < m; ++i) {
-            equation[i] = new Integer[kMin + random.nextInt(kMax + 1 - kMin)];
-        }
-        Set<Integer> verifyEquationSet = new HashSet<>();
-
-        int attemptCounter = 0;
-        while (verifyEquationSet.size() != 2 * n) {
-            verifyEquationSet = new HashSet<>();
-            for (int j = 0; j < m; ++j) {
-                for (int i = 0; i < equation[j].length; ++i) {
-                    int tmp;
-                    for (; ; ) {
-                        tmp = (random.nextInt(n) + 1) * (random.nextBoolean() ? 1 : -1);
-                        boolean isDuplicate = false;
-                        for (int i2 = 0; i2 < i; ++i2) {
-                            if (Math.abs(tmp) == Math.abs(equation[j][i2])) {
-                                isDuplicate = true;
-                                break;
-                            }
-                        }
-                        if (!isDuplicate) {
-                            break;
-                        }
-                    }
-                    equation[j][i] = tmp;
-                    verifyEquationSet.add(tmp);
-                }
-            }
-            if (++attemptCounter > 1000) {
-                throw new IllegalArgumentException(String.format(
-                        "Failed to generate a valid equation for n: %d, m: %d, kMin: %d, kMax: %d", n, m, kMin, kMax));
-            }
-        }
-
-        return equation;
+    static CnfFormula generateEquation(int n, int m, int kMin, int kMax) {
+        return RandomFormulaGenerator.generate(n, m, kMin, kMax, 42);
     }
 }
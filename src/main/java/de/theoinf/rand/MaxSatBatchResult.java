@@ -0,0 +1,45 @@
+package de.theoinf.rand;
+
+public class MaxSatBatchResult {
+    private final long[] satisfiedWeights;
+    private final long totalSatisfiedWeight;
+    private final long[] variableSlices;
+
+
+    /**
+     *
+     * @param satisfiedWeights the weight of the true clauses of each of the 64 variable assignments
+     * @param totalSatisfiedWeight the sum of satisfiedWeights
+     * @param variableSlices the 64 variable assignments for x1...xn as bit-slices
+     *                       (bit s of variableSlices[i] is the value of x(i+1) in assignment s)
+     */
+    public MaxSatBatchResult(long[] satisfiedWeights, long totalSatisfiedWeight, long[] variableSlices) {
+        this.satisfiedWeights = satisfiedWeights;
+        this.totalSatisfiedWeight = totalSatisfiedWeight;
+        this.variableSlices = variableSlices;
+    }
+
+    public int size() {
+        return satisfiedWeights.length;
+    }
+
+    public long getSatisfiedWeight(int sample) {
+        return satisfiedWeights[sample];
+    }
+
+    public long getTotalSatisfiedWeight() {
+        return totalSatisfiedWeight;
+    }
+
+    public long[] getVariableSlices() {
+        return variableSlices;
+    }
+
+    /**
+     * @return the variable assignment and satisfied weight of a single sample
+     */
+    public MaxSatResult getResult(int sample) {
+        return new MaxSatResult(satisfiedWeights[sample], variableSlices.length,
+                BitSlicedEvaluator.extractAssignment(variableSlices, sample));
+    }
+}
@@ -1,12 +1,11 @@
 package de.theoinf.rand;
 
-import java.util.function.Function;
+import java.util.function.DoubleUnaryOperator;
 
 public class MaxSatParameters {
-    private final Integer[][] equation;
-    private final int n;
+    private final CnfFormula formula;
     private final long seed;
-    private final Function<Double, Double> pi;
+    private final DoubleUnaryOperator pi;
     private final double pa;
 
     /**
@@ -16,11 +15,7 @@ public class MaxSatParameters {
      * @param seed a seed for the random number generator to get deterministic random results
      */
     public MaxSatParameters(Integer[][] equation, int n, long seed) {
-        this.equation = equation;
-        this.n = n;
-        this.seed = seed;
-        pi = null;
-        pa = 0.0;
+        this(CnfFormula.fromEquation(equation, n), seed, null, 0.0);
     }
 
     /**
@@ -30,12 +25,8 @@ public class MaxSatParameters {
      * @param seed a seed for the random number generator to get deterministic random results
      * @param pi the function pi for Algorithm B
      */
-    public MaxSatParameters(Integer[][] equation, int n, long seed, Function<Double, Double> pi) {
-        this.equation = equation;
-        this.n = n;
-        this.pi = pi;
-        this.seed = seed;
-        pa = 0.0;
+    public MaxSatParameters(Integer[][] equation, int n, long seed, DoubleUnaryOperator pi) {
+        this(CnfFormula.fromEquation(equation, n), seed, pi, 0.0);
     }
 
     /**
@@ -46,27 +37,37 @@ public class MaxSatParameters {
      * @param pi the function pi for Algorithm B
      * @param pa the probability pa for Algorithm C_pa
      */
-    public MaxSatParameters(Integer[][] equation, int n, long seed, Function<Double, Double> pi, double pa) {
-        this.equation = equation;
-        this.n = n;
+    public MaxSatParameters(Integer[][] equation, int n, long seed, DoubleUnaryOperator pi, double pa) {
+        this(CnfFormula.fromEquation(equation, n), seed, pi, pa);
+    }
+
+    /**
+     *
+     * @param formula the (n,m)-equation in conjunctive normal form
+     * @param seed a seed for the random number generator to get deterministic random results
+     * @param pi the function pi for Algorithm B
+     * @param pa the probability pa for Algorithm C_pa
+     */
+    public MaxSatParameters(CnfFormula formula, long seed, DoubleUnaryOperator pi, double pa) {
+        this.formula = formula;
         this.pi = pi;
         this.seed = seed;
         this.pa = pa;
     }
 
-    public Integer[][] getEquation() {
-        return equation;
+    public CnfFormula getFormula() {
+        return formula;
     }
 
     public int getN() {
-        return n;
+        return formula.getN();
     }
 
     public long getSeed() {
         return seed;
     }
 
-    public Function<Double, Double> getPi() {
+    public DoubleUnaryOperator getPi() {
         return pi;
     }
 
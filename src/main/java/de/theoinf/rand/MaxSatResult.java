@@ -1,25 +1,119 @@
 package de.theoinf.rand;
 
+/**
+ * A variable assignment and its satisfied weight. The assignment is packed into a bitset: the value of x(i+1) is bit
+ * i % 64 of word i / 64.
+ * <p>
+ * Results created by {@link #buffer(int)} are reused by sampling loops: the algorithms overwrite the assignment and
+ * the satisfied weight on every call, see {@link SamplingAlgorithm}. Use {@link #copy()} to keep such a result.
+ */
 public class MaxSatResult {
-    private final int trueClauses;
-    private final boolean[] xValues;
+    private long satisfiedWeight;
+    private final int n;
+    private final long[] words;
 
 
     /**
      *
-     * @param trueClauses the number of true clauses resulting from this variable assignment
+     * @param satisfiedWeight the weight of the true clauses resulting from this variable assignment,
+     *                        the number of true clauses for unweighted equations
      * @param xValues the variable assignment for x1...xn
      */
-    public MaxSatResult(int trueClauses, boolean[] xValues) {
-        this.trueClauses = trueClauses;
-        this.xValues = xValues;
+    public MaxSatResult(long satisfiedWeight, boolean[] xValues) {
+        this(satisfiedWeight, xValues.length, pack(xValues));
     }
 
-    public int getTrueClauses() {
-        return trueClauses;
+    /**
+     * @param satisfiedWeight the weight of the true clauses resulting from this variable assignment
+     * @param n               the number of variables x1...xn
+     * @param words           the packed variable assignment, see {@link #wordCount(int)}. Not copied.
+     */
+    public MaxSatResult(long satisfiedWeight, int n, long[] words) {
+        if (words.length != wordCount(n)) {
+            throw new IllegalArgumentException("Expected " + wordCount(n) + " words for n = " + n
+                    + " but got " + words.length);
+        }
+        this.satisfiedWeight = satisfiedWeight;
+        this.n = n;
+        this.words = words;
+    }
+
+    /**
+     * @param n the number of variables x1...xn
+     * @return a result to be overwritten by the algorithms, with all variables FALSE and a satisfied weight of 0
+     */
+    public static MaxSatResult buffer(int n) {
+        return new MaxSatResult(0, n, new long[wordCount(n)]);
+    }
+
+    /**
+     * @param n the number of variables x1...xn
+     * @return the number of longs to pack the assignment of n variables into
+     */
+    public static int wordCount(int n) {
+        return (n + 63) >>> 6;
+    }
+
+    /**
+     * @return a copy that isn't changed when this result is reused
+     */
+    public MaxSatResult copy() {
+        return new MaxSatResult(satisfiedWeight, n, words.clone());
+    }
+
+    /**
+     * @return the weight of the true clauses, see {@link CnfFormula#softWeightOf(long)} and
+     * {@link CnfFormula#falseHardClausesOf(long)} to split it for equations with hard clauses
+     */
+    public long getSatisfiedWeight() {
+        return satisfiedWeight;
     }
 
+    void setSatisfiedWeight(long satisfiedWeight) {
+        this.satisfiedWeight = satisfiedWeight;
+    }
+
+    /**
+     * @return the number of variables x1...xn
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * @param variable the 0-based variable index (x1 == 0)
+     * @return the value of the variable
+     */
+    public boolean getValue(int variable) {
+        return ((words[variable >>> 6] >>> variable) & 1L) != 0;
+    }
+
+    /**
+     * Direct access to the packed assignment for hot loops. Must not be modified, except by the algorithms filling a
+     * buffer.
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    /**
+     * @return an unpacked copy of the variable assignment for x1...xn
+     */
     public boolean[] getXValues() {
+        boolean[] xValues = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            xValues[i] = getValue(i);
+        }
         return xValues;
     }
+
+    private static long[] pack(boolean[] xValues) {
+        long[] words = new long[wordCount(xValues.length)];
+        for (int i = 0; i < xValues.length; ++i) {
+            if (xValues[i]) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+        return words;
+    }
 }
@@ -0,0 +1,215 @@
+package de.theoinf.rand;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counters, gauges and latency histograms for the solvers and algorithms.
+ * <p>
+ * Metrics are enabled with -Dmaxsat.metrics=true. {@link #ENABLED} is a constant, so the JIT removes the
+ * instrumentation from the hot paths completely when metrics are disabled.
+ */
+public class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("maxsat.metrics");
+
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the current time to pass to {@link LatencyHistogram#recordSince(long)}, 0 if metrics are disabled
+     */
+    public static long startTime() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Increments a counter if metrics are enabled
+     *
+     * @param name the name of the counter
+     */
+    public static void increment(String name) {
+        if (ENABLED) {
+            counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @return the histogram with the name, created if it doesn't exist yet
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a value that is read whenever a snapshot is taken
+     *
+     * @param name  the name of the gauge
+     * @param value supplies the current value
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Wraps a function to record the latency of every call
+     *
+     * @param name     the name of the histogram
+     * @param function the function to time
+     * @return the timed function or the function itself if metrics are disabled
+     */
+    public static <T, R> Function<T, R> timed(String name, Function<T, R> function) {
+        if (!ENABLED) {
+            return function;
+        }
+        LatencyHistogram histogram = histogram(name);
+        return argument -> {
+            long start = System.nanoTime();
+            R result = function.apply(argument);
+            histogram.recordSince(start);
+            return result;
+        };
+    }
+
+    /**
+     * Wraps a sampling algorithm to record the latency of every call
+     *
+     * @param name      the name of the histogram
+     * @param algorithm the algorithm to time
+     * @return the timed algorithm or the algorithm itself if metrics are disabled
+     */
+    public static SamplingAlgorithm timedSampling(String name, SamplingAlgorithm algorithm) {
+        if (!ENABLED) {
+            return algorithm;
+        }
+        LatencyHistogram histogram = histogram(name);
+        return (parameters, buffer) -> {
+            long start = System.nanoTime();
+            MaxSatResult result = algorithm.sample(parameters, buffer);
+            histogram.recordSince(start);
+            return result;
+        };
+    }
+
+    /**
+     * @return all metrics as text, one metric per line. Latencies are in milliseconds.
+     */
+    public static String snapshotText() {
+        var text = new StringBuilder();
+        counters.forEach((name, counter) -> text.append(name).append(' ').append(counter.sum()).append('\n'));
+        gauges.forEach((name, gauge) -> text.append(name).append(' ').append(gauge.getAsLong()).append('\n'));
+        histograms.forEach((name, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            text.append(String.format(Locale.ROOT, "%s count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms%n",
+                    name, snapshot.getCount(), snapshot.getMean() / 1e6, snapshot.getPercentile(0.5) / 1e6,
+                    snapshot.getPercentile(0.99) / 1e6, snapshot.getMax() / 1e6));
+        });
+        return text.toString();
+    }
+
+    /**
+     * @return all metrics as a single line JSON object. Latencies are in nanoseconds.
+     */
+    public static String snapshotJson() {
+        var json = new StringBuilder();
+        json.append("{\"timestamp\":").append(System.currentTimeMillis()).append(",\"counters\":{");
+        appendValues(json, counters, LongAdder::sum);
+        json.append("},\"gauges\":{");
+        appendValues(json, gauges, LongSupplier::getAsLong);
+        json.append("},\"histograms\":{");
+        String separator = "";
+        for (var entry : histograms.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            json.append(separator);
+            appendString(json, entry.getKey());
+            json.append(":{\"count\":").append(snapshot.getCount())
+                    .append(",\"sum\":").append(snapshot.getSum())
+                    .append(",\"p50\":").append(snapshot.getPercentile(0.5))
+                    .append(",\"p99\":").append(snapshot.getPercentile(0.99))
+                    .append(",\"max\":").append(snapshot.getMax())
+                    .append('}');
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Prints a snapshot periodically on a daemon thread until the exporter is closed
+     *
+     * @param periodMillis the time between two snapshots in milliseconds
+     * @param json         whether to print JSON instead of text
+     * @param out          the stream to print to
+     */
+    public static Exporter startExporter(long periodMillis, boolean json, PrintStream out) {
+        return new Exporter(periodMillis, json, out);
+    }
+
+    private static <V> void appendValues(StringBuilder json, Map<String, V> values, ToLongFunction<V> value) {
+        String separator = "";
+        for (var entry : values.entrySet()) {
+            json.append(separator);
+            appendString(json, entry.getKey());
+            json.append(':').append(value.applyAsLong(entry.getValue()));
+            separator = ",";
+        }
+    }
+
+    private static void appendString(StringBuilder json, String string) {
+        json.append('"');
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Prints snapshots periodically, see {@link #startExporter(long, boolean, PrintStream)}
+     */
+    public static final class Exporter implements AutoCloseable {
+        private final ScheduledExecutorService executor;
+        private final boolean json;
+        private final PrintStream out;
+
+        private Exporter(long periodMillis, boolean json, PrintStream out) {
+            this.json = json;
+            this.out = out;
+            this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "metrics-exporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(this::export, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void export() {
+            out.print(json ? snapshotJson() + System.lineSeparator() : snapshotText());
+            out.flush();
+        }
+
+        /**
+         * Stops the exporter and prints a last snapshot
+         */
+        @Override
+        public void close() {
+            executor.shutdownNow();
+            export();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.theoinf.rand;
+
+/**
+ * Solves the relaxed linear program with PDLP, the multithreaded first-order solver of OR-Tools.
+ * PDLP scales to much larger equations than GLOP but only solves up to the given relative tolerance.
+ */
+public class PdlpBackend implements LPBackend {
+    private final double timeout;
+    private final int threads;
+    private final double tolerance;
+
+    /**
+     * @param timeout   timeout in seconds
+     * @param threads   the number of threads PDLP may use
+     * @param tolerance the relative tolerance of the primal and dual objective, e.g. 1e-4
+     */
+    public PdlpBackend(double timeout, int threads, double tolerance) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("PDLP needs at least one thread");
+        }
+        this.timeout = timeout;
+        this.threads = threads;
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public String getName() {
+        return "PDLP;timeout=" + timeout + ";threads=" + threads + ";tolerance=" + tolerance;
+    }
+
+    @Override
+    public LPSolverResult solve(CnfFormula formula) {
+        return ILPSolver.solvePDLP(formula, timeout, threads, tolerance);
+    }
+}
@@ -0,0 +1,263 @@
+package de.theoinf.rand;
+
+import com.google.ortools.sat.CpSolverStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+/**
+ * Races several algorithms for a wall-clock budget and returns the best assignment any of them found.
+ * <p>
+ * Algorithm A sampling, Algorithm B rounding with every given pi and CP-SAT run concurrently, each on its own
+ * thread, and share one best-so-far result. The relaxed linear program gives an upper bound of the satisfied weight:
+ * once the best result reaches it, or CP-SAT proves optimality, all algorithms stop early. CP-SAT runs until its
+ * timeout, which is the remaining budget, unless its search is cancelled by an early stop.
+ */
+public class PortfolioSolver {
+    private final CnfFormula formula;
+    private final List<DoubleUnaryOperator> pis;
+    private final int cpSatWorkers;
+
+    /**
+     * The best result of a portfolio run
+     */
+    public static final class Result {
+        private final MaxSatResult bestResult;
+        private final String strategy;
+        private final long millisToBest;
+        private final boolean optimal;
+
+        private Result(MaxSatResult bestResult, String strategy, long millisToBest, boolean optimal) {
+            this.bestResult = bestResult;
+            this.strategy = strategy;
+            this.millisToBest = millisToBest;
+            this.optimal = optimal;
+        }
+
+        public MaxSatResult getBestResult() {
+            return bestResult;
+        }
+
+        /**
+         * @return the name of the algorithm that found the best result first
+         */
+        public String getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * @return the time from the start until the best result was found
+         */
+        public long getMillisToBest() {
+            return millisToBest;
+        }
+
+        /**
+         * @return true if the best result is proven to be optimal
+         */
+        public boolean isOptimal() {
+            return optimal;
+        }
+    }
+
+    /**
+     * @param formula      the equation to solve
+     * @param pis          the functions pi to run Algorithm B with, one thread each
+     * @param cpSatWorkers the number of CP-SAT workers, 0 to not run CP-SAT
+     */
+    public PortfolioSolver(CnfFormula formula, List<DoubleUnaryOperator> pis, int cpSatWorkers) {
+        if (cpSatWorkers < 0) {
+            throw new IllegalArgumentException("Invalid number of CP-SAT workers " + cpSatWorkers);
+        }
+        this.formula = formula;
+        this.pis = List.copyOf(pis);
+        this.cpSatWorkers = cpSatWorkers;
+    }
+
+    /**
+     * @param budgetMillis the wall-clock budget in milliseconds
+     * @param seed         the seed all random decisions are derived from
+     * @return the best result found within the budget
+     */
+    public Result solve(long budgetMillis, long seed) {
+        long start = System.nanoTime();
+        long deadline = start + budgetMillis * 1000000;
+        var run = new Run(start);
+        var random = new SplittableRandom(seed);
+
+        // The upper bound of the relaxed linear program. Without it the run can only stop early if CP-SAT proves
+        // optimality, so a failed LP is reported but doesn't fail the run. A solve that has already started can't be
+        // interrupted, cancelling only drops its result.
+        CompletableFuture<Long> upperBound = CompletableFuture.supplyAsync(() -> LPDuality.satisfiedWeightBound(formula,
+                RandomisedMaxSATApproximationAlgorithms.solveLP(formula)));
+        upperBound.whenComplete((bound, e) -> {
+            if (e == null) {
+                if (bound == Long.MAX_VALUE) {
+                    Metrics.increment("portfolio.bound.unavailable");
+                }
+                run.setUpperBound(bound);
+            } else if (!(e instanceof CancellationException)) {
+                Metrics.increment("portfolio.bound.failed");
+                System.err.printf("The portfolio runs without an upper bound, the LP failed: %s%n",
+                        e instanceof CompletionException ? e.getCause() : e);
+            }
+        });
+        run.done.whenComplete((ignored, e) -> upperBound.cancel(false));
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(run.startSampler("Algorithm A", random.split(), deadline,
+                RandomisedMaxSATApproximationAlgorithms::probabilisticRandomisedBatch, null));
+        for (int p = 0; p < pis.size(); ++p) {
+            threads.add(run.startSampler("Algorithm B[pi " + (p + 1) + "]", random.split(), deadline,
+                    RandomisedMaxSATApproximationAlgorithms::randomisedRoundingBatch, pis.get(p)));
+        }
+        if (cpSatWorkers > 0) {
+            threads.add(run.startCpSat(deadline, cpSatWorkers));
+        }
+
+        try {
+            run.done.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // The budget is used up
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A portfolio algorithm failed", e.getCause());
+        }
+        run.done.complete(null);
+        // Completing done has cancelled the CP-SAT search, so all threads stop soon
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        Best best = run.best.get();
+        return new Result(best.result, best.strategy, best.millis, run.optimal);
+    }
+
+    private static final class Best {
+        private final MaxSatResult result;
+        private final String strategy;
+        private final long millis;
+
+        private Best(MaxSatResult result, String strategy, long millis) {
+            this.result = result;
+            this.strategy = strategy;
+            this.millis = millis;
+        }
+    }
+
+    /**
+     * The state shared by all algorithms of one portfolio run
+     */
+    private final class Run {
+        private final long start;
+        private final AtomicReference<Best> best = new AtomicReference<>();
+        // Completed when the run should stop early
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final CpSatCancellation cpSatCancellation = new CpSatCancellation();
+        private volatile long upperBound = Long.MAX_VALUE;
+        private volatile boolean optimal = false;
+
+        private Run(long start) {
+            this.start = start;
+            best.set(new Best(new MaxSatResult(-1, new boolean[formula.getN()]), "none", 0));
+            done.whenComplete((ignored, e) -> cpSatCancellation.cancel());
+        }
+
+        private void setUpperBound(long bound) {
+            upperBound = bound;
+            checkBound();
+        }
+
+        private void offer(MaxSatResult result, String strategy) {
+            Best current = best.get();
+            while (result.getSatisfiedWeight() > current.result.getSatisfiedWeight()) {
+                var next = new Best(result, strategy, (System.nanoTime() - start) / 1000000);
+                if (best.compareAndSet(current, next)) {
+                    checkBound();
+                    return;
+                }
+                current = best.get();
+            }
+        }
+
+        private void checkBound() {
+            if (best.get().result.getSatisfiedWeight() >= upperBound) {
+                optimal = true;
+                done.complete(null);
+            }
+        }
+
+        private Thread startSampler(String name, SplittableRandom random, long deadline,
+                                    Function<MaxSatParameters, MaxSatBatchResult> algorithm, DoubleUnaryOperator pi) {
+            var thread = new Thread(() -> {
+                try {
+                    // At least one batch, so there is a result even for a tiny budget
+                    do {
+                        var parameters = new MaxSatParameters(formula, random.nextLong(), pi, 0.0);
+                        MaxSatBatchResult batch = algorithm.apply(parameters);
+                        int bestSample = 0;
+                        for (int s = 1; s < batch.size(); ++s) {
+                            if (batch.getSatisfiedWeight(s) > batch.getSatisfiedWeight(bestSample)) {
+                                bestSample = s;
+                            }
+                        }
+                        if (batch.getSatisfiedWeight(bestSample) > best.get().result.getSatisfiedWeight()) {
+                            offer(batch.getResult(bestSample), name);
+                        }
+                    } while (!done.isDone() && System.nanoTime() < deadline);
+                } catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+            }, "portfolio-" + name);
+            thread.start();
+            return thread;
+        }
+
+        private Thread startCpSat(long deadline, int workers) {
+            var thread = new Thread(() -> {
+                try {
+                    // Start from the derandomised Algorithm A, which is found in linear time
+                    var hint = RandomisedMaxSATApproximationAlgorithms.probabilisticDerandomised(
+                            new MaxSatParameters(formula, 0, null, 0.0));
+                    offer(hint, "Algorithm A derandomised");
+                    double timeout = Math.max(0.001, (deadline - System.nanoTime()) / 1e9);
+                    LPSolverResult result = ILPSolver.solveCpSat(formula, 1, timeout, workers,
+                            best.get().result.getXValues(), null, cpSatCancellation);
+                    if (result.status != CpSolverStatus.OPTIMAL && result.status != CpSolverStatus.FEASIBLE) {
+                        return;
+                    }
+                    boolean[] variables = new boolean[formula.getN()];
+                    for (int i = 0; i < variables.length; ++i) {
+                        variables[i] = result.xValues[i] > 0.5;
+                    }
+                    offer(new MaxSatResult(RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(formula, variables),
+                            variables), "CP-SAT");
+                    if (result.status == CpSolverStatus.OPTIMAL) {
+                        optimal = true;
+                        done.complete(null);
+                    }
+                } catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+            }, "portfolio-CP-SAT");
+            thread.start();
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.theoinf.rand;
+
+/**
+ * An equation simplified by {@link Preprocessor} and everything needed to translate assignments and satisfied
+ * weights of the simplified equation back to the original equation
+ */
+public class PreprocessedFormula {
+    private final CnfFormula original;
+    private final CnfFormula formula;
+    private final int[] originalVariables;
+    private final boolean[] fixedValues;
+    private final long fixedSoftWeight;
+    private final Statistics statistics;
+
+    /**
+     * @param original          the original equation
+     * @param formula           the simplified equation
+     * @param originalVariables the original index of every variable of the simplified equation
+     * @param fixedValues       the values of the removed variables, indexed by the original variables
+     * @param fixedSoftWeight   the weight of the removed soft clauses, which are always true
+     * @param statistics        what was simplified
+     */
+    PreprocessedFormula(CnfFormula original, CnfFormula formula, int[] originalVariables, boolean[] fixedValues,
+                        long fixedSoftWeight, Statistics statistics) {
+        this.original = original;
+        this.formula = formula;
+        this.originalVariables = originalVariables;
+        this.fixedValues = fixedValues;
+        this.fixedSoftWeight = fixedSoftWeight;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param formula an equation
+     * @return the equation without any simplification
+     */
+    public static PreprocessedFormula unchanged(CnfFormula formula) {
+        int[] originalVariables = new int[formula.getN()];
+        for (int i = 0; i < originalVariables.length; ++i) {
+            originalVariables[i] = i;
+        }
+        return new PreprocessedFormula(formula, formula, originalVariables, new boolean[formula.getN()], 0,
+                new Statistics());
+    }
+
+    public CnfFormula getOriginal() {
+        return original;
+    }
+
+    /**
+     * @return the simplified equation to solve
+     */
+    public CnfFormula getFormula() {
+        return formula;
+    }
+
+    /**
+     * @return the weight of the soft clauses that were removed because every restored assignment makes them true
+     */
+    public long getFixedSoftWeight() {
+        return fixedSoftWeight;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param assignment an assignment of the variables of the simplified equation
+     * @return the assignment of the variables of the original equation
+     */
+    public boolean[] restore(boolean[] assignment) {
+        if (assignment.length != formula.getN()) {
+            throw new IllegalArgumentException("Expected " + formula.getN() + " variables but got "
+                    + assignment.length);
+        }
+        boolean[] restored = fixedValues.clone();
+        for (int i = 0; i < assignment.length; ++i) {
+            restored[originalVariables[i]] = assignment[i];
+        }
+        return restored;
+    }
+
+    /**
+     * @param result a result for the simplified equation
+     * @return the result for the original equation
+     */
+    public MaxSatResult restore(MaxSatResult result) {
+        return new MaxSatResult(originalWeight(result.getSatisfiedWeight()), restore(result.getXValues()));
+    }
+
+    /**
+     * @param satisfiedWeight the satisfied weight of an assignment of the simplified equation
+     * @return the satisfied weight of the restored assignment in the original equation
+     */
+    public long originalWeight(long satisfiedWeight) {
+        long trueHardClauses = original.getHardClauseCount() - formula.falseHardClausesOf(satisfiedWeight);
+        return original.getHardWeight() * trueHardClauses + formula.softWeightOf(satisfiedWeight) + fixedSoftWeight;
+    }
+
+    /**
+     * Translates an average or another linear combination of satisfied weights. Exact for equations without
+     * hard clauses and for assignments that make all hard clauses true, otherwise only an estimate.
+     *
+     * @param satisfiedWeight a satisfied weight of the simplified equation
+     * @return the satisfied weight in the original equation
+     */
+    public double originalWeight(double satisfiedWeight) {
+        return satisfiedWeight - (double) formula.getHardWeight() * formula.getHardClauseCount()
+                + (double) original.getHardWeight() * original.getHardClauseCount() + fixedSoftWeight;
+    }
+
+    /**
+     * What the {@link Preprocessor} simplified
+     */
+    public static final class Statistics {
+        int duplicateLiterals;
+        int tautologies;
+        int mergedClauses;
+        int pureLiterals;
+        int removedVariables;
+
+        public int getDuplicateLiterals() {
+            return duplicateLiterals;
+        }
+
+        public int getTautologies() {
+            return tautologies;
+        }
+
+        public int getMergedClauses() {
+            return mergedClauses;
+        }
+
+        public int getPureLiterals() {
+            return pureLiterals;
+        }
+
+        /**
+         * @return the number of fixed pure literals and of variables that don't appear in any clause
+         */
+        public int getRemovedVariables() {
+            return removedVariables;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package de.theoinf.rand;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Simplifies an equation before it is solved, without changing its optimal assignments:
+ * <ul>
+ *     <li>duplicate literals in a clause are removed</li>
+ *     <li>tautological clauses (containing xi and !xi) are removed, they are true for every assignment</li>
+ *     <li>identical soft clauses are merged into one clause with the sum of their weights</li>
+ *     <li>pure literals (variables that appear only negated or only not-negated) are fixed to the value that makes
+ *     all their clauses true, and these clauses are removed. Repeated until no pure literals are left.</li>
+ *     <li>variables that don't appear in any clause anymore are removed and the others renumbered</li>
+ * </ul>
+ * Hard clauses are never merged, so every false hard clause of the simplified equation is exactly one false hard
+ * clause of the original equation. See {@link PreprocessedFormula} for translating results back.
+ */
+public class Preprocessor {
+
+    /**
+     * @param formula the equation to simplify
+     * @return the simplified equation and the mapping back to the original variables
+     */
+    public static PreprocessedFormula preprocess(CnfFormula formula) {
+        int n = formula.getN();
+        int m = formula.getM();
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        var statistics = new PreprocessedFormula.Statistics();
+        long fixedSoftWeight = 0;
+
+        // Sort the literals of every clause, remove duplicates and tautologies, and merge identical soft clauses
+        int[] offsets = new int[m + 1];
+        int[] normalized = new int[literals.length];
+        long[] weights = new long[m];
+        var softClauses = new HashMap<ClauseKey, Integer>();
+        int clauseCount = 0;
+        int literalCount = 0;
+        for (int j = 0; j < m; ++j) {
+            int start = literalCount;
+            int length = clauseOffsets[j + 1] - clauseOffsets[j];
+            System.arraycopy(literals, clauseOffsets[j], normalized, start, length);
+            Arrays.sort(normalized, start, start + length);
+
+            boolean tautology = false;
+            int end = start;
+            for (int i = start; i < start + length; ++i) {
+                if (end > start && normalized[end - 1] == normalized[i]) {
+                    ++statistics.duplicateLiterals;
+                } else if (end > start && CnfFormula.variableOf(normalized[end - 1]) == CnfFormula.variableOf(normalized[i])) {
+                    tautology = true;
+                    break;
+                } else {
+                    normalized[end++] = normalized[i];
+                }
+            }
+
+            boolean hard = formula.isHard(j);
+            long weight = formula.isWeighted() ? formula.getWeights()[j] : 1;
+            if (tautology) {
+                ++statistics.tautologies;
+                if (!hard) {
+                    fixedSoftWeight += weight;
+                }
+                continue;
+            }
+            if (!hard) {
+                Integer existing = softClauses.putIfAbsent(new ClauseKey(normalized, start, end), clauseCount);
+                if (existing != null) {
+                    ++statistics.mergedClauses;
+                    weights[existing] += weight;
+                    continue;
+                }
+            }
+            weights[clauseCount] = weight;
+            literalCount = end;
+            offsets[++clauseCount] = literalCount;
+        }
+
+        // Fix pure literals until there are none left
+        int[] positive = new int[n];
+        int[] negative = new int[n];
+        for (int i = 0; i < literalCount; ++i) {
+            if (CnfFormula.isNegated(normalized[i])) {
+                ++negative[CnfFormula.variableOf(normalized[i])];
+            } else {
+                ++positive[CnfFormula.variableOf(normalized[i])];
+            }
+        }
+        var simplified = new CnfFormula(n, Arrays.copyOf(offsets, clauseCount + 1),
+                Arrays.copyOf(normalized, literalCount));
+        int[] occurrenceOffsets = simplified.getOccurrenceOffsets();
+        int[] occurrences = simplified.getOccurrences();
+        boolean[] removedClauses = new boolean[clauseCount];
+        boolean[] fixed = new boolean[n];
+        boolean[] values = new boolean[n];
+        var pureVariables = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; ++i) {
+            if (isPure(positive[i], negative[i])) {
+                pureVariables.add(i);
+            }
+        }
+        while (!pureVariables.isEmpty()) {
+            int variable = pureVariables.poll();
+            if (fixed[variable] || !isPure(positive[variable], negative[variable])) {
+                continue;
+            }
+            fixed[variable] = true;
+            values[variable] = positive[variable] > 0;
+            ++statistics.pureLiterals;
+            for (int o = occurrenceOffsets[variable]; o < occurrenceOffsets[variable + 1]; ++o) {
+                int clause = occurrences[o] >>> 1;
+                if (removedClauses[clause]) {
+                    continue;
+                }
+                removedClauses[clause] = true;
+                if (weights[clause] != CnfFormula.HARD) {
+                    fixedSoftWeight += weights[clause];
+                }
+                for (int i = offsets[clause]; i < offsets[clause + 1]; ++i) {
+                    int other = CnfFormula.variableOf(normalized[i]);
+                    if (CnfFormula.isNegated(normalized[i])) {
+                        --negative[other];
+                    } else {
+                        --positive[other];
+                    }
+                    if (!fixed[other] && isPure(positive[other], negative[other])) {
+                        pureVariables.add(other);
+                    }
+                }
+            }
+        }
+
+        // Renumber the remaining variables
+        int[] reducedVariables = new int[n];
+        int[] originalVariables = new int[n];
+        int reducedN = 0;
+        for (int i = 0; i < n; ++i) {
+            reducedVariables[i] = reducedN;
+            if (!fixed[i] && positive[i] + negative[i] > 0) {
+                originalVariables[reducedN++] = i;
+            }
+        }
+
+        int reducedM = 0;
+        for (int j = 0; j < clauseCount; ++j) {
+            if (!removedClauses[j]) {
+                ++reducedM;
+            }
+        }
+        int[] reducedOffsets = new int[reducedM + 1];
+        int[] reducedLiterals = new int[literalCount];
+        long[] reducedWeights = new long[reducedM];
+        boolean unitWeights = !formula.isWeighted();
+        int clause = 0;
+        int position = 0;
+        for (int j = 0; j < clauseCount; ++j) {
+            if (removedClauses[j]) {
+                continue;
+            }
+            for (int i = offsets[j]; i < offsets[j + 1]; ++i) {
+                int literal = normalized[i];
+                reducedLiterals[position++] = CnfFormula.encode(reducedVariables[CnfFormula.variableOf(literal)],
+                        CnfFormula.isNegated(literal));
+            }
+            reducedWeights[clause] = weights[j];
+            unitWeights &= weights[j] == 1;
+            reducedOffsets[++clause] = position;
+        }
+
+        var reduced = new CnfFormula(reducedN, reducedOffsets, Arrays.copyOf(reducedLiterals, position),
+                unitWeights ? null : reducedWeights);
+        statistics.removedVariables = n - reducedN;
+        return new PreprocessedFormula(formula, reduced, Arrays.copyOf(originalVariables, reducedN), values,
+                fixedSoftWeight, statistics);
+    }
+
+    private static boolean isPure(int positive, int negative) {
+        return (positive == 0) != (negative == 0);
+    }
+
+    /**
+     * A clause in the literal array as hash key
+     */
+    private static final class ClauseKey {
+        private final int[] literals;
+        private final int from;
+        private final int to;
+        private final int hash;
+
+        private ClauseKey(int[] literals, int from, int to) {
+            this.literals = literals;
+            this.from = from;
+            this.to = to;
+            int result = 1;
+            for (int i = from; i < to; ++i) {
+                result = 31 * result + literals[i];
+            }
+            this.hash = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ClauseKey)) {
+                return false;
+            }
+            var other = (ClauseKey) o;
+            return hash == other.hash && Arrays.equals(literals, from, to, other.literals, other.from, other.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package de.theoinf.rand;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Generates large random (n,m)-equations in conjunctive normal form in parallel.
+ * <p>
+ * Every clause draws its random numbers from its own SplitMix64 stream, derived from the seed and the clause index
+ * (counter-based), so the clauses can be filled in parallel chunks and the same (n, m, kMin, kMax, seed) always
+ * gives the same equation no matter how many threads are used. The distinct variables of a clause are drawn with
+ * Floyd's sampling algorithm, which never rejects a draw.
+ * <p>
+ * Instead of generating the equation again until every literal appears, literals that don't appear are written over
+ * literals that appear more than once, in a deterministic sequential repair pass.
+ */
+public class RandomFormulaGenerator {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int CHUNK_SIZE = 1 << 14;
+    // Up to this clause length the variables drawn so far are scanned, longer clauses mark them in an array
+    private static final int MAX_SCANNED_CLAUSE_LENGTH = 16;
+
+    /**
+     * Generates an equation on all available processors
+     *
+     * @param n    the number of variables xi
+     * @param m    the number of clauses Cj
+     * @param kMin the minimum number of literals in each clause (inclusive)
+     * @param kMax the maximum number of literals in each clause (inclusive)
+     * @param seed the seed of the equation
+     * @return an (n,m)-equation in which every literal xi and !xi appears and no clause contains a variable twice
+     */
+    public static CnfFormula generate(int n, int m, int kMin, int kMax, long seed) {
+        return generate(n, m, kMin, kMax, seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param n           the number of variables xi
+     * @param m           the number of clauses Cj
+     * @param kMin        the minimum number of literals in each clause (inclusive)
+     * @param kMax        the maximum number of literals in each clause (inclusive)
+     * @param seed        the seed of the equation
+     * @param parallelism the number of threads to generate the clauses on
+     * @return an (n,m)-equation in which every literal xi and !xi appears and no clause contains a variable twice
+     */
+    public static CnfFormula generate(int n, int m, int kMin, int kMax, long seed, int parallelism) {
+        if (kMax > n) {
+            throw new IllegalArgumentException("Can't generate a valid equation for kMax > n");
+        } else if (kMax < kMin) {
+            throw new IllegalArgumentException("Can't generate a valid equation for kMax < kMin");
+        } else if (kMin < 1 || m < 0) {
+            throw new IllegalArgumentException("Can't generate a valid equation for kMin < 1 or m < 0");
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            return pool.submit(() -> fill(n, m, kMin, kMax, seed)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Generates the equation with parallel streams, run on the pool of the calling task
+     */
+    private static CnfFormula fill(int n, int m, int kMin, int kMax, long seed) {
+        int chunks = (m + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        // The clause lengths are the first draw of every clause stream
+        int[] clauseOffsets = new int[m + 1];
+        chunks(chunks).forEach(c -> {
+            for (int j = c * CHUNK_SIZE; j < Math.min(m, (c + 1) * CHUNK_SIZE); ++j) {
+                clauseOffsets[j + 1] = kMin + bounded(mix64(clauseState(seed, j) + GOLDEN_GAMMA), kMax + 1 - kMin);
+            }
+        });
+        long literalCount = chunks(chunks)
+                .mapToLong(c -> {
+                    long sum = 0;
+                    for (int j = c * CHUNK_SIZE; j < Math.min(m, (c + 1) * CHUNK_SIZE); ++j) {
+                        sum += clauseOffsets[j + 1];
+                    }
+                    return sum;
+                })
+                .sum();
+        if (literalCount >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many literals: " + literalCount);
+        } else if (literalCount < 2L * n) {
+            throw new IllegalArgumentException(String.format(
+                    "Can't cover all %d literals with %d literals in %d clauses", 2L * n, literalCount, m));
+        }
+        Arrays.parallelPrefix(clauseOffsets, Integer::sum);
+
+        int[] literals = new int[(int) literalCount];
+        ThreadLocal<int[]> marks = ThreadLocal.withInitial(() -> new int[kMax > MAX_SCANNED_CLAUSE_LENGTH ? n : 0]);
+        chunks(chunks).forEach(c -> {
+            int[] mark = marks.get();
+            for (int j = c * CHUNK_SIZE; j < Math.min(m, (c + 1) * CHUNK_SIZE); ++j) {
+                fillClause(n, clauseOffsets[j], clauseOffsets[j + 1], literals, clauseState(seed, j), j + 1, mark);
+            }
+        });
+
+        AtomicIntegerArray literalCounts = new AtomicIntegerArray(2 * n);
+        IntStream.range(0, (literals.length + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(c -> {
+            for (int i = c * CHUNK_SIZE; i < Math.min(literals.length, (c + 1) * CHUNK_SIZE); ++i) {
+                literalCounts.incrementAndGet(literals[i]);
+            }
+        });
+        coverMissingLiterals(n, clauseOffsets, literals, literalCounts, seed);
+
+        return new CnfFormula(n, clauseOffsets, literals);
+    }
+
+    private static IntStream chunks(int chunks) {
+        return IntStream.range(0, chunks).parallel();
+    }
+
+    /**
+     * Fills a clause with distinct variables by Floyd's algorithm: for r = n-k...n-1 draw t from [0, r] and take t,
+     * or r if t was taken before.
+     *
+     * @param state the state of the clause stream, positioned before the clause length draw
+     * @param stamp a number unique to the clause, used to mark its variables
+     * @param mark  the marks of the variables for long clauses
+     */
+    private static void fillClause(int n, int start, int end, int[] literals, long state, int stamp, int[] mark) {
+        int k = end - start;
+        // Skip the clause length draw
+        state += GOLDEN_GAMMA;
+        for (int r = n - k, i = start; r < n; ++r, ++i) {
+            state += GOLDEN_GAMMA;
+            long draw = mix64(state);
+            int variable = bounded(draw, r + 1);
+            if (k > MAX_SCANNED_CLAUSE_LENGTH) {
+                if (mark[variable] == stamp) {
+                    variable = r;
+                }
+                mark[variable] = stamp;
+            } else if (containsVariable(literals, start, i, variable)) {
+                variable = r;
+            }
+            literals[i] = CnfFormula.encode(variable, (draw & 1) != 0);
+        }
+    }
+
+    /**
+     * Writes every literal that doesn't appear over a literal that appears more than once, without putting a
+     * variable twice into a clause. The replaced positions are spread over the whole equation.
+     */
+    private static void coverMissingLiterals(int n, int[] clauseOffsets, int[] literals,
+                                             AtomicIntegerArray literalCounts, long seed) {
+        int[] missing = IntStream.range(0, 2 * n).filter(literal -> literalCounts.get(literal) == 0).toArray();
+        if (missing.length == 0) {
+            return;
+        }
+        int[] counts = new int[2 * n];
+        for (int literal = 0; literal < counts.length; ++literal) {
+            counts[literal] = literalCounts.get(literal);
+        }
+
+        int stride = Math.max(1, literals.length / missing.length);
+        int position = bounded(mix64(seed), literals.length);
+        for (int literal : missing) {
+            int variable = CnfFormula.variableOf(literal);
+            int checked = 0;
+            while (!canReplace(clauseOffsets, literals, counts, position, variable)) {
+                if (++checked == literals.length) {
+                    throw new IllegalArgumentException("Can't cover all literals, the clauses are too few or too long");
+                }
+                position = position + 1 == literals.length ? 0 : position + 1;
+            }
+            --counts[literals[position]];
+            ++counts[literal];
+            literals[position] = literal;
+            position = (int) (((long) position + stride) % literals.length);
+        }
+    }
+
+    private static boolean canReplace(int[] clauseOffsets, int[] literals, int[] counts, int position, int variable) {
+        if (counts[literals[position]] < 2) {
+            return false;
+        }
+        // The clause containing the position, clauses are never empty
+        int clause = Arrays.binarySearch(clauseOffsets, position);
+        if (clause < 0) {
+            clause = -clause - 2;
+        }
+        for (int i = clauseOffsets[clause]; i < clauseOffsets[clause + 1]; ++i) {
+            if (i != position && CnfFormula.variableOf(literals[i]) == variable) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsVariable(int[] literals, int from, int to, int variable) {
+        for (int i = from; i < to; ++i) {
+            if (CnfFormula.variableOf(literals[i]) == variable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long clauseState(long seed, int clause) {
+        return mix64(seed ^ mix64((clause + 1L) * GOLDEN_GAMMA));
+    }
+
+    /**
+     * @return a number in [0, bound) from the upper 32 bits of a random long
+     */
+    private static int bounded(long random, int bound) {
+        return (int) (((random >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * The SplitMix64 output function
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
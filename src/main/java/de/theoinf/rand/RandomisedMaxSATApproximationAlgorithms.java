@@ -1,52 +1,174 @@
 package de.theoinf.rand;
 
+import com.google.ortools.sat.CpSolverStatus;
+
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.DoubleUnaryOperator;
 
 public class RandomisedMaxSATApproximationAlgorithms {
-    public static Map<Long, LPSolverResult> solvedEquations = new HashMap<>();
+    /**
+     * Caches the solutions of the relaxed linear programs. Bounded to 16M x- and z-values.
+     */
+    public static final LPSolutionCache solvedEquations = new LPSolutionCache(1L << 24);
+
+    /**
+     * The solver for the relaxed linear programs. Part of the cache key, so changing it doesn't reuse old solutions.
+     */
+    public static LPBackend lpBackend = new GlopBackend(5.0);
+
+    private static final LatencyHistogram EVALUATION_TIME = Metrics.histogram("evaluation.scalar");
+    private static final LatencyHistogram BATCH_EVALUATION_TIME = Metrics.histogram("evaluation.batch");
+    // The seed increment of SplittableRandom, used by Algorithm C_pa to derive its values from the seed
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    // The assignment of Algorithm A while Algorithm C_all runs Algorithm B, grown to the largest n of each thread
+    private static final ThreadLocal<long[]> SAVED_WORDS = ThreadLocal.withInitial(() -> new long[0]);
+
+    static {
+        Metrics.gauge("lp.cache.hits", solvedEquations::getHitCount);
+        Metrics.gauge("lp.cache.misses", solvedEquations::getMissCount);
+        Metrics.gauge("lp.cache.evictions", solvedEquations::getEvictionCount);
+        Metrics.gauge("lp.cache.size", solvedEquations::size);
+    }
 
     /**
      * Algorithm A - Randomly sets variables xi to TRUE or FALSE with a 50% probability each
      *
      * @param parameters contains the equation and the random seed for running Algorithm A
-     * @return a MaxSatResult with the number of true clauses and the variable assignment
+     * @return a MaxSatResult with the satisfied weight and the variable assignment
      */
     public static MaxSatResult probabilisticRandomised(MaxSatParameters parameters) {
-        boolean[] variables = new boolean[parameters.getN()];
-        Integer[][] equation = parameters.getEquation();
+        return probabilisticRandomised(parameters, MaxSatResult.buffer(parameters.getN()));
+    }
+
+    /**
+     * Algorithm A into a reused buffer, see {@link #probabilisticRandomised(MaxSatParameters)}
+     *
+     * @param parameters contains the equation and the random seed for running Algorithm A
+     * @param buffer     receives the satisfied weight and the variable assignment
+     * @return the buffer
+     */
+    public static MaxSatResult probabilisticRandomised(MaxSatParameters parameters, MaxSatResult buffer) {
+        return probabilisticRandomised(parameters.getFormula(), parameters.getSeed(), buffer);
+    }
+
+    private static MaxSatResult probabilisticRandomised(CnfFormula formula, long seed, MaxSatResult buffer) {
+        long[] words = buffer.getWords();
+        int n = formula.getN();
+        // Seeded random instance to get the same results when running the function twice with the same seed
+        Random random = new Random(seed);
+
+        for (int w = 0; w < words.length; ++w) {
+            long word = 0;
+            for (int i = w << 6; i < Math.min(n, (w + 1) << 6); ++i) {
+                if (random.nextBoolean()) {
+                    word |= 1L << i;
+                }
+            }
+            words[w] = word;
+        }
+
+        buffer.setSatisfiedWeight(satisfiedWeight(formula, words));
+        return buffer;
+    }
+
+    /**
+     * Algorithm A for 64 assignments at once - Every bit of a random long is TRUE with a 50% probability,
+     * so one random long per variable draws the variable for all 64 assignments
+     *
+     * @param parameters contains the equation and the random seed for running Algorithm A
+     * @return a MaxSatBatchResult with the satisfied weight and the variable assignment of 64 runs
+     */
+    public static MaxSatBatchResult probabilisticRandomisedBatch(MaxSatParameters parameters) {
+        long[] variableSlices = new long[parameters.getN()];
         // Seeded random instance to get the same results when running the function twice with the same seed
         Random random = new Random(parameters.getSeed());
 
-        // TODO: Implement Algorithm A
+        for (int i = 0; i < variableSlices.length; ++i) {
+            variableSlices[i] = random.nextLong();
+        }
 
-        return new MaxSatResult(countTrueClauses(parameters.getEquation(), variables), variables);
+        return evaluateBatch(parameters.getFormula(), variableSlices);
     }
 
     /**
      * Algorithm B - Solves the relaxed linear program to find the probabilities for setting a variable to TRUE
      *
      * @param parameters contains the equation, the function pi and the random seed for running Algorithm B
-     * @return a MaxSatResult with the number of true clauses and the variable assignment
+     * @return a MaxSatResult with the satisfied weight and the variable assignment
      */
     public static MaxSatResult randomisedRounding(MaxSatParameters parameters) {
-        boolean[] variables = new boolean[parameters.getN()];
-        Integer[][] equation = parameters.getEquation();
+        return randomisedRounding(parameters, MaxSatResult.buffer(parameters.getN()));
+    }
+
+    /**
+     * Algorithm B into a reused buffer, see {@link #randomisedRounding(MaxSatParameters)}
+     *
+     * @param parameters contains the equation, the function pi and the random seed for running Algorithm B
+     * @param buffer     receives the satisfied weight and the variable assignment
+     * @return the buffer
+     */
+    public static MaxSatResult randomisedRounding(MaxSatParameters parameters, MaxSatResult buffer) {
+        return randomisedRounding(parameters.getFormula(), parameters.getSeed(), parameters.getPi(), buffer);
+    }
+
+    private static MaxSatResult randomisedRounding(CnfFormula formula, long seed, DoubleUnaryOperator pi,
+                                                   MaxSatResult buffer) {
         // Seeded random instance to get the same results when running the function twice with the same seed
-        Random random = new Random(parameters.getSeed());
+        SplittableRandom random = new SplittableRandom(seed);
+
+        // Solve relaxed linear program, the probabilities pi(x) of its optimised x variables are computed only once
+        LPSolverResult solverResult = solveLP(formula);
+        solverResult.getRoundingTable(pi).round(random, buffer.getWords());
+
+        buffer.setSatisfiedWeight(satisfiedWeight(formula, buffer.getWords()));
+        return buffer;
+    }
 
-        // Solve relaxed linear program
-        LPSolverResult solverResult = solveLP(parameters.getEquation(), parameters.getN());
-        // The optimised x variables with 0 <= value <= 1
-        List<Double> solverVariableAssignment = solverResult.xValues;
+    /**
+     * Algorithm B for 64 assignments at once - Solves the relaxed linear program once and rounds it 64 times
+     *
+     * @param parameters contains the equation, the function pi and the random seed for running Algorithm B
+     * @return a MaxSatBatchResult with the satisfied weight and the variable assignment of 64 runs
+     */
+    public static MaxSatBatchResult randomisedRoundingBatch(MaxSatParameters parameters) {
+        long[] variableSlices = new long[parameters.getN()];
+        // Seeded random instance to get the same results when running the function twice with the same seed
+        SplittableRandom random = new SplittableRandom(parameters.getSeed());
 
-        // TODO: Implement Algorithm B
+        LPSolverResult solverResult = solveLP(parameters.getFormula());
+        solverResult.getRoundingTable(parameters.getPi()).roundSlices(random, variableSlices);
 
-        int trueClauses = countTrueClauses(parameters.getEquation(), variables);
-        return new MaxSatResult(trueClauses, variables);
+        return evaluateBatch(parameters.getFormula(), variableSlices);
+    }
+
+    /**
+     * Algorithm A derandomised - Fixes the variables one after another by the method of conditional expectations,
+     * starting from a 50% probability for each variable. The result has at least the satisfied weight Algorithm A
+     * has in expectation.
+     *
+     * @param parameters contains the equation
+     * @return a MaxSatResult with the satisfied weight and the variable assignment
+     */
+    public static MaxSatResult probabilisticDerandomised(MaxSatParameters parameters) {
+        double[] probabilities = new double[parameters.getN()];
+        Arrays.fill(probabilities, 0.5);
+        return ConditionalExpectation.fixVariables(parameters.getFormula(), probabilities);
+    }
+
+    /**
+     * Algorithm B derandomised - Fixes the variables one after another by the method of conditional expectations,
+     * starting from the probabilities pi(x) of the relaxed linear program. The result has at least the satisfied
+     * weight Algorithm B has in expectation.
+     *
+     * @param parameters contains the equation and the function pi
+     * @return a MaxSatResult with the satisfied weight and the variable assignment
+     */
+    public static MaxSatResult randomisedRoundingDerandomised(MaxSatParameters parameters) {
+        LPSolverResult solverResult = solveLP(parameters.getFormula());
+        double[] probabilities = solverResult.getRoundingTable(parameters.getPi()).getProbabilities();
+        return ConditionalExpectation.fixVariables(parameters.getFormula(), probabilities);
     }
 
     /**
@@ -56,9 +178,33 @@ public class RandomisedMaxSATApproximationAlgorithms {
      * @return the better of the two results of Algorithm A and B
      */
     public static MaxSatResult algorithmC_all(MaxSatParameters parameters) {
-        // TODO: Implement Algorithm C_all
+        return algorithmC_all(parameters, MaxSatResult.buffer(parameters.getN()));
+    }
 
-        return null;
+    /**
+     * Algorithm C_all into a reused buffer, see {@link #algorithmC_all(MaxSatParameters)}. The assignment of
+     * Algorithm A is saved in a per-thread array while Algorithm B overwrites the buffer.
+     *
+     * @param parameters the parameters for running Algorithm A and B
+     * @param buffer     receives the satisfied weight and the variable assignment
+     * @return the buffer
+     */
+    public static MaxSatResult algorithmC_all(MaxSatParameters parameters, MaxSatResult buffer) {
+        long[] words = buffer.getWords();
+        long weightA = probabilisticRandomised(parameters, buffer).getSatisfiedWeight();
+        long[] wordsA = SAVED_WORDS.get();
+        if (wordsA.length < words.length) {
+            wordsA = new long[words.length];
+            SAVED_WORDS.set(wordsA);
+        }
+        System.arraycopy(words, 0, wordsA, 0, words.length);
+
+        long weightB = randomisedRounding(parameters, buffer).getSatisfiedWeight();
+        if (weightA >= weightB) {
+            System.arraycopy(wordsA, 0, words, 0, words.length);
+            buffer.setSatisfiedWeight(weightA);
+        }
+        return buffer;
     }
 
     /**
@@ -68,11 +214,24 @@ public class RandomisedMaxSATApproximationAlgorithms {
      * @return the result of Algorithm A with probability pa, otherwise the result of Algorithm B
      */
     public static MaxSatResult algorithmC_pa(MaxSatParameters parameters) {
-        double pa = parameters.getPa();
-
-        // TODO: Implement Algorithm C_1/2
+        return algorithmC_pa(parameters, MaxSatResult.buffer(parameters.getN()));
+    }
 
-        return null;
+    /**
+     * Algorithm C_pa into a reused buffer, see {@link #algorithmC_pa(MaxSatParameters)}
+     *
+     * @param parameters the parameters for running Algorithm A and B
+     * @param buffer     receives the satisfied weight and the variable assignment
+     * @return the buffer
+     */
+    public static MaxSatResult algorithmC_pa(MaxSatParameters parameters, MaxSatResult buffer) {
+        // The first two values of a SplittableRandom with the seed, mixed directly so a sample allocates nothing
+        long seed = parameters.getSeed();
+        boolean runAlgorithmA = (mix64(seed + GOLDEN_GAMMA) >>> 11) * 0x1.0p-53 < parameters.getPa();
+        long algorithmSeed = mix64(seed + 2 * GOLDEN_GAMMA);
+        return runAlgorithmA
+                ? probabilisticRandomised(parameters.getFormula(), algorithmSeed, buffer)
+                : randomisedRounding(parameters.getFormula(), algorithmSeed, parameters.getPi(), buffer);
     }
 
 
@@ -81,39 +240,111 @@ public class RandomisedMaxSATApproximationAlgorithms {
     // -------------------------------------------------------------------------------------
 
     /**
-     * Counts the number of true clauses in a (n,m)-equation in conjunctive normal form for a given variable assignment
+     * The mixing function of SplittableRandom (David Stafford's Mix13), spreads every bit of z over the result
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Computes the weight of the true clauses in a (n,m)-equation in conjunctive normal form for a given variable
+     * assignment. For unweighted equations this is the number of true clauses.
      *
-     * @param equation  the equation to check
+     * @param formula   the equation to check
      * @param variables the variable assignment
-     * @return the number of true clauses
-     */
-    private static int countTrueClauses(Integer[][] equation, boolean[] variables) {
-        int numSatisfiedClauses = 0;
-        for (var clause : equation) {
-            for (var literal : clause) {
-                int index = Math.abs(literal) - 1;
-                boolean expectedValue = literal > 0; // x == true, -x == false
-                if (variables[index] == expectedValue) {
-                    ++numSatisfiedClauses;
+     * @return the satisfied weight
+     */
+    public static long satisfiedWeight(CnfFormula formula, boolean[] variables) {
+        long start = Metrics.startTime();
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        long[] weights = formula.getEffectiveWeights();
+        long satisfiedWeight = 0;
+        for (int j = 0; j < formula.getM(); ++j) {
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                int literal = literals[i];
+                // x == true, -x == false
+                if (variables[CnfFormula.variableOf(literal)] != CnfFormula.isNegated(literal)) {
+                    satisfiedWeight += weights == null ? 1 : weights[j];
                     break;
                 }
             }
         }
-        return numSatisfiedClauses;
+        EVALUATION_TIME.recordSince(start);
+        return satisfiedWeight;
     }
 
     /**
-     * Solves the relaxed linear program
-     * @param equation the equation to solve
-     * @param n the number of variable
+     * Computes the weight of the true clauses for a packed variable assignment, see {@link MaxSatResult#getWords()}
+     *
+     * @param formula the equation to check
+     * @param words   the packed variable assignment, bit i % 64 of words[i / 64] is the value of x(i+1)
+     * @return the satisfied weight
+     */
+    public static long satisfiedWeight(CnfFormula formula, long[] words) {
+        long start = Metrics.startTime();
+        int[] clauseOffsets = formula.getClauseOffsets();
+        int[] literals = formula.getLiterals();
+        long[] weights = formula.getEffectiveWeights();
+        long satisfiedWeight = 0;
+        for (int j = 0; j < formula.getM(); ++j) {
+            for (int i = clauseOffsets[j]; i < clauseOffsets[j + 1]; ++i) {
+                int literal = literals[i];
+                int variable = CnfFormula.variableOf(literal);
+                // The sign bit of the literal flips the value, so the literal is true if the result is 1
+                if ((((words[variable >>> 6] >>> variable) ^ literal) & 1L) != 0) {
+                    satisfiedWeight += weights == null ? 1 : weights[j];
+                    break;
+                }
+            }
+        }
+        EVALUATION_TIME.recordSince(start);
+        return satisfiedWeight;
+    }
+
+    /**
+     * Computes the satisfied weight of 64 variable assignments stored as bit-slices
+     *
+     * @param formula        the equation to check
+     * @param variableSlices the variable assignments, bit s of variableSlices[i] is the value of x(i+1) in assignment s
+     * @return the satisfied weight and the variable assignments
+     */
+    private static MaxSatBatchResult evaluateBatch(CnfFormula formula, long[] variableSlices) {
+        long start = Metrics.startTime();
+        long[] satisfiedWeights = new long[BitSlicedEvaluator.BATCH_SIZE];
+        long totalSatisfiedWeight = BitSlicedEvaluator.satisfiedWeights(formula, variableSlices, satisfiedWeights);
+        BATCH_EVALUATION_TIME.recordSince(start);
+        return new MaxSatBatchResult(satisfiedWeights, totalSatisfiedWeight, variableSlices);
+    }
+
+    /**
+     * Solves the relaxed linear program with {@link #lpBackend}. Variable-disjoint components of the equation are
+     * solved in parallel and cached on their own. Warns on stderr if a solution is not optimal.
+     * @param formula the equation to solve
      * @return the solver result
      */
-    private static LPSolverResult solveLP(Integer[][] equation, int n) {
-        long hash = Arrays.hashCode(Arrays.stream(equation).map(Arrays::hashCode).toArray());
+    static LPSolverResult solveLP(CnfFormula formula) {
+        LPBackend backend = lpBackend;
         // Check if this program has been solved before to save performance
-        if (!solvedEquations.containsKey(hash)) {
-            solvedEquations.put(hash, ILPSolver.solveGLOP(n, equation, 5.0));
+        return solvedEquations.get(formula.digest().with(backend.getName()), () -> {
+            var decomposition = ComponentDecomposition.decompose(formula);
+            if (decomposition.size() == 1) {
+                return solveLP(backend, formula);
+            }
+            return decomposition.solve(component -> solvedEquations.get(
+                    component.getFormula().digest().with(backend.getName()),
+                    () -> solveLP(backend, component.getFormula())));
+        });
+    }
+
+    private static LPSolverResult solveLP(LPBackend backend, CnfFormula formula) {
+        LPSolverResult result = backend.solve(formula);
+        if (result.status != CpSolverStatus.OPTIMAL) {
+            System.err.printf("Warning: %s returned %s with a duality gap of %.3g, the rounding probabilities "
+                    + "may be off%n", backend.getName(), result.status, result.dualityGap);
         }
-        return solvedEquations.get(hash);
+        return result;
     }
 }
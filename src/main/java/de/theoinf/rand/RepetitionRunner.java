@@ -0,0 +1,270 @@
+package de.theoinf.rand;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+/**
+ * Runs the repetitions of an algorithm in parallel on a fork/join pool.
+ * <p>
+ * The repetitions are split into fixed chunks along a binary tree that only depends on the number of repetitions.
+ * Every split also splits the SplittableRandom that provides the seeds, so each chunk gets an independent seed stream
+ * and every repetition gets the same seed no matter how many threads run the tasks. Summaries are merged in repetition
+ * order, so best and average results are identical for every thread count.
+ */
+public class RepetitionRunner implements AutoCloseable {
+    /**
+     * The number of repetitions run by a single task. Multiple of the batch size so batches are never split.
+     */
+    private static final int CHUNK_SIZE = 4 * BitSlicedEvaluator.BATCH_SIZE;
+    /**
+     * The first block of an adaptive run. Every following block is twice as large up to {@link #MAX_BLOCK_SIZE}.
+     */
+    private static final int MIN_BLOCK_SIZE = CHUNK_SIZE;
+    private static final int MAX_BLOCK_SIZE = 64 * CHUNK_SIZE;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    /**
+     * @param parallelism the number of threads to run the repetitions on
+     */
+    public RepetitionRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    /**
+     * @param pool the pool to run the repetitions on. The pool is not shut down by {@link #close()}.
+     */
+    public RepetitionRunner(ForkJoinPool pool) {
+        this.pool = pool;
+        this.ownsPool = false;
+    }
+
+    /**
+     * Runs an algorithm that returns a single result per call
+     *
+     * @param algorithm   the algorithm to run
+     * @param repetitions how often to run the algorithm
+     * @param seed        the seed all repetition seeds are derived from
+     * @param equation    the equation to solve
+     * @param pi          the function pi for Algorithm B
+     * @param pa          the probability pa for Algorithm C_pa
+     * @return the best and the average result of all repetitions
+     */
+    public RepetitionSummary run(
+            Function<MaxSatParameters, MaxSatResult> algorithm,
+            int repetitions,
+            long seed,
+            CnfFormula equation,
+            DoubleUnaryOperator pi,
+            double pa
+    ) {
+        return pool.invoke(new RepetitionTask(new SplittableRandom(seed), 0, repetitions, (random, from, to) -> {
+            var summary = new RepetitionSummary();
+            for (int i = from; i < to; ++i) {
+                summary.add(algorithm.apply(new MaxSatParameters(equation, random.nextLong(), pi, pa)));
+            }
+            return summary;
+        }));
+    }
+
+    /**
+     * Runs an algorithm that writes its result into a buffer. Every chunk of repetitions reuses one buffer, and only
+     * improving results are copied out.
+     *
+     * @param algorithm   the algorithm to run
+     * @param repetitions how often to run the algorithm
+     * @param seed        the seed all repetition seeds are derived from
+     * @param equation    the equation to solve
+     * @param pi          the function pi for Algorithm B
+     * @param pa          the probability pa for Algorithm C_pa
+     * @return the best and the average result of all repetitions
+     */
+    public RepetitionSummary runSampling(
+            SamplingAlgorithm algorithm,
+            int repetitions,
+            long seed,
+            CnfFormula equation,
+            DoubleUnaryOperator pi,
+            double pa
+    ) {
+        return pool.invoke(new RepetitionTask(new SplittableRandom(seed), 0, repetitions, (random, from, to) -> {
+            var summary = new RepetitionSummary();
+            var buffer = MaxSatResult.buffer(equation.getN());
+            for (int i = from; i < to; ++i) {
+                summary.addSample(algorithm.sample(new MaxSatParameters(equation, random.nextLong(), pi, pa), buffer));
+            }
+            return summary;
+        }));
+    }
+
+    /**
+     * Runs an algorithm that draws and evaluates 64 assignments per call
+     *
+     * @param algorithm   the algorithm to run
+     * @param repetitions the number of assignments to draw
+     * @param seed        the seed all batch seeds are derived from
+     * @param equation    the equation to solve
+     * @param pi          the function pi for Algorithm B
+     * @return the best and the average result of all repetitions
+     */
+    public RepetitionSummary runBatched(
+            Function<MaxSatParameters, MaxSatBatchResult> algorithm,
+            int repetitions,
+            long seed,
+            CnfFormula equation,
+            DoubleUnaryOperator pi
+    ) {
+        return pool.invoke(new RepetitionTask(new SplittableRandom(seed), 0, repetitions, (random, from, to) -> {
+            var summary = new RepetitionSummary();
+            for (int i = from; i < to; i += BitSlicedEvaluator.BATCH_SIZE) {
+                MaxSatBatchResult batch = algorithm.apply(new MaxSatParameters(equation, random.nextLong(), pi, 0.0));
+                summary.add(batch, Math.min(batch.size(), to - i));
+            }
+            return summary;
+        }));
+    }
+
+    /**
+     * Runs an algorithm that returns a single result per call until the stopping rule is met. The repetitions run in
+     * blocks of growing size, and the rule is checked after every block. Every block gets its own seed derived from
+     * the given seed, so the result doesn't depend on the number of threads.
+     *
+     * @param algorithm the algorithm to run
+     * @param rule      decides when to stop
+     * @param seed      the seed all block seeds are derived from
+     * @param equation  the equation to solve
+     * @param pi        the function pi for Algorithm B
+     * @param pa        the probability pa for Algorithm C_pa
+     * @return the best and the average result of all repetitions and the reason for stopping
+     */
+    public RepetitionSummary runAdaptive(
+            Function<MaxSatParameters, MaxSatResult> algorithm,
+            StoppingRule rule,
+            long seed,
+            CnfFormula equation,
+            DoubleUnaryOperator pi,
+            double pa
+    ) {
+        return runInBlocks(rule, seed, (repetitions, blockSeed) ->
+                run(algorithm, repetitions, blockSeed, equation, pi, pa));
+    }
+
+    /**
+     * Runs an algorithm that writes its result into a buffer until the stopping rule is met,
+     * see {@link #runAdaptive(Function, StoppingRule, long, CnfFormula, DoubleUnaryOperator, double)}
+     *
+     * @param algorithm the algorithm to run
+     * @param rule      decides when to stop
+     * @param seed      the seed all block seeds are derived from
+     * @param equation  the equation to solve
+     * @param pi        the function pi for Algorithm B
+     * @param pa        the probability pa for Algorithm C_pa
+     * @return the best and the average result of all repetitions and the reason for stopping
+     */
+    public RepetitionSummary runSamplingAdaptive(
+            SamplingAlgorithm algorithm,
+            StoppingRule rule,
+            long seed,
+            CnfFormula equation,
+            DoubleUnaryOperator pi,
+            double pa
+    ) {
+        return runInBlocks(rule, seed, (repetitions, blockSeed) ->
+                runSampling(algorithm, repetitions, blockSeed, equation, pi, pa));
+    }
+
+    /**
+     * Runs an algorithm that draws and evaluates 64 assignments per call until the stopping rule is met,
+     * see {@link #runAdaptive(Function, StoppingRule, long, CnfFormula, DoubleUnaryOperator, double)}
+     *
+     * @param algorithm the algorithm to run
+     * @param rule      decides when to stop
+     * @param seed      the seed all block seeds are derived from
+     * @param equation  the equation to solve
+     * @param pi        the function pi for Algorithm B
+     * @return the best and the average result of all repetitions and the reason for stopping
+     */
+    public RepetitionSummary runBatchedAdaptive(
+            Function<MaxSatParameters, MaxSatBatchResult> algorithm,
+            StoppingRule rule,
+            long seed,
+            CnfFormula equation,
+            DoubleUnaryOperator pi
+    ) {
+        return runInBlocks(rule, seed, (repetitions, blockSeed) ->
+                runBatched(algorithm, repetitions, blockSeed, equation, pi));
+    }
+
+    private RepetitionSummary runInBlocks(StoppingRule rule, long seed, BlockRunner blockRunner) {
+        var seeds = new SplittableRandom(seed);
+        var summary = new RepetitionSummary();
+        int blockSize = MIN_BLOCK_SIZE;
+        // Counted in whole blocks, since only the best result of a block is known
+        int repetitionsSinceImprovement = 0;
+        StoppingRule.Reason reason;
+        while ((reason = rule.check(summary, repetitionsSinceImprovement)) == null) {
+            int repetitions = Math.min(blockSize, rule.getMaxRepetitions() - summary.getRepetitions());
+            RepetitionSummary block = blockRunner.run(repetitions, seeds.nextLong());
+            boolean improved = summary.getBestResult() == null
+                    || block.getBestResult().getSatisfiedWeight() > summary.getBestResult().getSatisfiedWeight();
+            repetitionsSinceImprovement = improved ? 0 : repetitionsSinceImprovement + repetitions;
+            summary.merge(block);
+            blockSize = Math.min(MAX_BLOCK_SIZE, 2 * blockSize);
+        }
+        summary.setStopReason(reason);
+        return summary;
+    }
+
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+
+    private interface BlockRunner {
+        RepetitionSummary run(int repetitions, long seed);
+    }
+
+    private interface ChunkRunner {
+        RepetitionSummary run(SplittableRandom random, int from, int to);
+    }
+
+    private static class RepetitionTask extends RecursiveTask<RepetitionSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final SplittableRandom random;
+        private final int from;
+        private final int to;
+        private final ChunkRunner chunkRunner;
+
+        RepetitionTask(SplittableRandom random, int from, int to, ChunkRunner chunkRunner) {
+            this.random = random;
+            this.from = from;
+            this.to = to;
+            this.chunkRunner = chunkRunner;
+        }
+
+        @Override
+        protected RepetitionSummary compute() {
+            int chunks = (to - from + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            if (chunks <= 1) {
+                return chunkRunner.run(random, from, to);
+            }
+            int middle = from + chunks / 2 * CHUNK_SIZE;
+            // Split before forking so the seed streams don't depend on the execution order
+            var right = new RepetitionTask(random.split(), middle, to, chunkRunner);
+            var left = new RepetitionTask(random, from, middle, chunkRunner);
+            right.fork();
+            RepetitionSummary summary = left.compute();
+            summary.merge(right.join());
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package de.theoinf.rand;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The combined result of several repetitions of an algorithm: the best result, the satisfied weight summed
+ * over all repetitions, its running mean and variance, minimum, maximum and a histogram.
+ * The memory is constant in the number of repetitions. Summaries of consecutive repetition ranges can be merged.
+ */
+public class RepetitionSummary {
+    private MaxSatResult bestResult;
+    private long totalWeight;
+    private int repetitions;
+
+    // Welford's running mean and sum of squared differences from the mean
+    private double mean;
+    private double squaredDifferences;
+    private long minWeight = Long.MAX_VALUE;
+    private long maxWeight = Long.MIN_VALUE;
+    private AdaptiveHistogram histogram = new AdaptiveHistogram();
+    private StoppingRule.Reason stopReason;
+
+    /**
+     * Adds the result of a single repetition
+     */
+    public void add(MaxSatResult result) {
+        if (bestResult == null || result.getSatisfiedWeight() > bestResult.getSatisfiedWeight()) {
+            bestResult = result;
+        }
+        addValue(result.getSatisfiedWeight());
+    }
+
+    /**
+     * Adds the result of a single repetition that is reused by the caller. It is only copied if it's the new best
+     * result.
+     */
+    public void addSample(MaxSatResult sample) {
+        if (bestResult == null || sample.getSatisfiedWeight() > bestResult.getSatisfiedWeight()) {
+            bestResult = sample.copy();
+        }
+        addValue(sample.getSatisfiedWeight());
+    }
+
+    /**
+     * Adds the first samples of a batch. Only the best assignment of the batch is extracted.
+     *
+     * @param batch   the batch result
+     * @param samples the number of samples of the batch to use
+     */
+    public void add(MaxSatBatchResult batch, int samples) {
+        int bestSample = -1;
+        for (int s = 0; s < samples; ++s) {
+            long weight = batch.getSatisfiedWeight(s);
+            if ((bestResult == null || weight > bestResult.getSatisfiedWeight())
+                    && (bestSample < 0 || weight > batch.getSatisfiedWeight(bestSample))) {
+                bestSample = s;
+            }
+            addValue(weight);
+        }
+        if (bestSample >= 0) {
+            bestResult = batch.getResult(bestSample);
+        }
+    }
+
+    private void addValue(long weight) {
+        totalWeight += weight;
+        ++repetitions;
+        double delta = weight - mean;
+        mean += delta / repetitions;
+        squaredDifferences += delta * (weight - mean);
+        minWeight = Math.min(minWeight, weight);
+        maxWeight = Math.max(maxWeight, weight);
+        histogram.add(weight);
+    }
+
+    /**
+     * Merges the summary of the repetitions following the repetitions of this summary.
+     * On equal satisfied weights the earlier best result is kept.
+     */
+    public void merge(RepetitionSummary other) {
+        if (other.repetitions == 0) {
+            return;
+        }
+        if (other.bestResult != null
+                && (bestResult == null || other.bestResult.getSatisfiedWeight() > bestResult.getSatisfiedWeight())) {
+            bestResult = other.bestResult;
+        }
+        // Chan et al.'s formula for combining the variances of two sets
+        long combined = (long) repetitions + other.repetitions;
+        double delta = other.mean - mean;
+        squaredDifferences += other.squaredDifferences
+                + delta * delta * ((double) repetitions * other.repetitions / combined);
+        mean += delta * other.repetitions / combined;
+
+        totalWeight += other.totalWeight;
+        repetitions += other.repetitions;
+        minWeight = Math.min(minWeight, other.minWeight);
+        maxWeight = Math.max(maxWeight, other.maxWeight);
+        histogram.merge(other.histogram);
+    }
+
+    public MaxSatResult getBestResult() {
+        return bestResult;
+    }
+
+    public long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public int getRepetitions() {
+        return repetitions;
+    }
+
+    /**
+     * @return the exact average, computed from the sum of all satisfied weights, 0 without repetitions
+     */
+    public double getAverageWeight() {
+        return repetitions == 0 ? 0.0 : (double) totalWeight / repetitions;
+    }
+
+    /**
+     * @return the sample variance of the satisfied weight, 0 for less than two repetitions
+     */
+    public double getVariance() {
+        return repetitions < 2 ? 0.0 : squaredDifferences / (repetitions - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public long getMinWeight() {
+        return minWeight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return the distribution of the satisfied weight over all repetitions
+     */
+    public AdaptiveHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Writes this summary so another process can merge it, see {@link #read(DataInput)}:
+     * <pre>
+     *     int    repetitions
+     *     long   total weight, min and max weight
+     *     double mean and sum of squared differences from the mean
+     *     the histogram of the weights
+     *     long   satisfied weight of the best result, int n and the packed best assignment (only if repetitions > 0)
+     * </pre>
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeInt(repetitions);
+        output.writeLong(totalWeight);
+        output.writeLong(minWeight);
+        output.writeLong(maxWeight);
+        output.writeDouble(mean);
+        output.writeDouble(squaredDifferences);
+        histogram.write(output);
+        if (repetitions > 0) {
+            output.writeLong(bestResult.getSatisfiedWeight());
+            output.writeInt(bestResult.getN());
+            for (long word : bestResult.getWords()) {
+                output.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * @param input the input to read from
+     * @return the summary written by {@link #write(DataOutput)}
+     * @throws IOException if the input ends early or doesn't contain a valid summary
+     */
+    public static RepetitionSummary read(DataInput input) throws IOException {
+        var summary = new RepetitionSummary();
+        summary.repetitions = input.readInt();
+        if (summary.repetitions < 0) {
+            throw new IOException("Invalid number of repetitions " + summary.repetitions);
+        }
+        summary.totalWeight = input.readLong();
+        summary.minWeight = input.readLong();
+        summary.maxWeight = input.readLong();
+        summary.mean = input.readDouble();
+        summary.squaredDifferences = input.readDouble();
+        summary.histogram = AdaptiveHistogram.read(input);
+        if (summary.repetitions > 0) {
+            long satisfiedWeight = input.readLong();
+            int n = input.readInt();
+            if (n < 0) {
+                throw new IOException("Invalid number of variables " + n);
+            }
+            long[] words = new long[MaxSatResult.wordCount(n)];
+            for (int w = 0; w < words.length; ++w) {
+                words[w] = input.readLong();
+            }
+            summary.bestResult = new MaxSatResult(satisfiedWeight, n, words);
+        }
+        return summary;
+    }
+
+    /**
+     * @return why an adaptive run stopped, null for a fixed number of repetitions
+     */
+    public StoppingRule.Reason getStopReason() {
+        return stopReason;
+    }
+
+    void setStopReason(StoppingRule.Reason stopReason) {
+        this.stopReason = stopReason;
+    }
+}
@@ -0,0 +1,95 @@
+package de.theoinf.rand;
+
+import java.util.SplittableRandom;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The rounding probabilities pi(xi) of an LP solution, computed once and reused by every repetition of Algorithm B.
+ * <p>
+ * Every probability is also stored as a 32-bit threshold, so a variable is TRUE if a uniform 32-bit draw is below
+ * its threshold. One 64-bit draw of a {@link SplittableRandom} gives two such draws, so rounding needs no boxing,
+ * no floating point conversion and half the random numbers of nextDouble().
+ */
+public final class RoundingTable {
+    private static final double THRESHOLD_SCALE = 0x1p32;
+    private static final long LOW_BITS = 0xFFFFFFFFL;
+
+    private final DoubleUnaryOperator pi;
+    private final double[] probabilities;
+    private final long[] thresholds;
+
+    /**
+     * @param xValues the x-values of the LP solution
+     * @param pi      the function pi, its values are clamped to [0, 1]
+     */
+    public RoundingTable(double[] xValues, DoubleUnaryOperator pi) {
+        this.pi = pi;
+        this.probabilities = new double[xValues.length];
+        this.thresholds = new long[xValues.length];
+        for (int i = 0; i < xValues.length; ++i) {
+            double probability = Math.min(1.0, Math.max(0.0, pi.applyAsDouble(xValues[i])));
+            probabilities[i] = probability;
+            thresholds[i] = (long) (probability * THRESHOLD_SCALE);
+        }
+    }
+
+    public DoubleUnaryOperator getPi() {
+        return pi;
+    }
+
+    /**
+     * @return pi(xi) for every variable. Must not be modified.
+     */
+    public double[] getProbabilities() {
+        return probabilities;
+    }
+
+    /**
+     * Rounds every variable once into a packed assignment. Two variables share one random long.
+     *
+     * @param random the random number generator
+     * @param words  receives the assignment, bit i % 64 of words[i / 64] is TRUE with probability pi(xi)
+     */
+    public void round(SplittableRandom random, long[] words) {
+        int n = thresholds.length;
+        for (int w = 0; w < words.length; ++w) {
+            int from = w << 6;
+            int to = Math.min(n, from + 64);
+            long word = 0;
+            for (int i = from; i < to; i += 2) {
+                long bits = random.nextLong();
+                if ((bits >>> 32) < thresholds[i]) {
+                    word |= 1L << i;
+                }
+                // A word starts at an even variable, so a pair never spans two words
+                if (i + 1 < to && (bits & LOW_BITS) < thresholds[i + 1]) {
+                    word |= 1L << (i + 1);
+                }
+            }
+            words[w] = word;
+        }
+    }
+
+    /**
+     * Rounds every variable 64 times
+     *
+     * @param random         the random number generator
+     * @param variableSlices receives the assignments, bit s of variableSlices[i] is TRUE with probability pi(xi)
+     */
+    public void roundSlices(SplittableRandom random, long[] variableSlices) {
+        for (int i = 0; i < thresholds.length; ++i) {
+            long threshold = thresholds[i];
+            long slice = 0;
+            for (int s = 0; s < BitSlicedEvaluator.BATCH_SIZE; s += 2) {
+                long bits = random.nextLong();
+                if ((bits >>> 32) < threshold) {
+                    slice |= 1L << s;
+                }
+                if ((bits & LOW_BITS) < threshold) {
+                    slice |= 1L << (s + 1);
+                }
+            }
+            variableSlices[i] = slice;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package de.theoinf.rand;
+
+/**
+ * A randomised algorithm that writes its assignment into a reused buffer instead of allocating a new result, so a
+ * sampling loop allocates nothing per repetition.
+ */
+@FunctionalInterface
+public interface SamplingAlgorithm {
+    /**
+     * @param parameters contains the equation, the random seed and the parameters of the algorithm
+     * @param buffer     receives the variable assignment and the satisfied weight, see {@link MaxSatResult#buffer(int)}
+     * @return the buffer
+     */
+    MaxSatResult sample(MaxSatParameters parameters, MaxSatResult buffer);
+}
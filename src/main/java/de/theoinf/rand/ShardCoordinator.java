@@ -0,0 +1,330 @@
+package de.theoinf.rand;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the repetitions of an algorithm in several worker processes, each with its own heap and its own native
+ * OR-Tools memory. The workers are {@link SolveService}s, started as local JVMs or reached over sockets.
+ * <p>
+ * The repetitions are split into shards of {@link #SHARD_SIZE} repetitions. Every shard gets its own seed derived
+ * from the run seed, and the workers take the next open shard whenever they are done, so faster workers run more
+ * shards. The equation is sent to every worker only once and the workers answer with mergeable summaries. The
+ * summaries are merged in shard order, so the result doesn't depend on the number of workers.
+ * <p>
+ * A worker that answers with an error stays connected. A worker whose connection fails or that sends an invalid
+ * answer is closed and not used again, because its stream position is unknown.
+ */
+public class ShardCoordinator implements AutoCloseable {
+    /**
+     * The number of repetitions of a shard. Fixed, so the shard seeds don't depend on the number of workers.
+     */
+    static final int SHARD_SIZE = 256 * BitSlicedEvaluator.BATCH_SIZE;
+    private static final long WORKER_EXIT_TIMEOUT_SECONDS = 10;
+
+    private final List<Worker> workers;
+
+    /**
+     * A connection to a worker process
+     */
+    private static final class Worker implements Closeable {
+        private final String name;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+        private final Closeable connection;
+        // The equation the worker has, so it's only sent again for the next equation
+        private FormulaDigest formula;
+        // Set when the connection can't be used anymore, the worker is closed and removed after the run
+        private boolean broken;
+
+        private Worker(String name, InputStream in, OutputStream out, Closeable connection) {
+            this.name = name;
+            this.input = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+            this.output = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            this.connection = connection;
+        }
+
+        private void send(CnfFormula equation) throws IOException {
+            if (equation.digest().equals(formula)) {
+                return;
+            }
+            output.writeInt(SolveService.FORMULA_MAGIC);
+            FormulaCodec.write(equation, output);
+            output.flush();
+            readAnswer();
+            formula = equation.digest();
+        }
+
+        private RepetitionSummary solve(String algorithm, long seed, int repetitions, double slope, double offset,
+                                        double pa) throws IOException {
+            output.writeInt(SolveService.SHARD_MAGIC);
+            output.writeUTF(algorithm);
+            output.writeLong(seed);
+            output.writeInt(repetitions);
+            output.writeDouble(slope);
+            output.writeDouble(offset);
+            output.writeDouble(pa);
+            output.flush();
+            readAnswer();
+            return RepetitionSummary.read(input);
+        }
+
+        private void readAnswer() throws IOException {
+            int magic = input.readInt();
+            if (magic != SolveService.ANSWER_MAGIC) {
+                throw new IOException("Invalid answer magic " + Integer.toHexString(magic) + " from " + name);
+            }
+            if (input.readByte() != 0) {
+                throw new IllegalStateException("Worker " + name + " failed: " + input.readUTF());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // The worker stops at the end of its input
+                output.close();
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    private ShardCoordinator(List<Worker> workers) {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("A coordinator needs at least one worker");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Starts worker JVMs on this machine with the class path of this JVM. The maxsat.* system properties that
+     * configure solving, e.g. the LP backend or the result store, are passed on to the workers.
+     *
+     * @param count the number of workers to start
+     * @return a coordinator for the started workers
+     * @throws IOException if a worker can't be started
+     */
+    public static ShardCoordinator startLocal(int count) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid number of workers " + count);
+        }
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (String property : System.getProperties().stringPropertyNames()) {
+            if (property.startsWith("maxsat.") && isSolverProperty(property)) {
+                command.add("-D" + property + "=" + System.getProperty(property));
+            }
+        }
+        command.add("-Dmaxsat.serve=stdio");
+        command.add(Main.class.getName());
+
+        List<Worker> workers = new ArrayList<>();
+        try {
+            for (int w = 0; w < count; ++w) {
+                Process process = new ProcessBuilder(command)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                workers.add(new Worker("local-" + (w + 1) + " (pid " + process.pid() + ")",
+                        process.getInputStream(), process.getOutputStream(), () -> stop(process)));
+            }
+        } catch (IOException e) {
+            closeAll(workers);
+            throw e;
+        }
+        return new ShardCoordinator(workers);
+    }
+
+    /**
+     * Connects to running workers, see {@link SolveService#serveSocket(int)}
+     *
+     * @param addresses the addresses of the workers
+     * @return a coordinator for the workers
+     * @throws IOException if a worker can't be reached
+     */
+    public static ShardCoordinator connect(List<InetSocketAddress> addresses) throws IOException {
+        List<Worker> workers = new ArrayList<>();
+        try {
+            for (InetSocketAddress address : addresses) {
+                var socket = new Socket(address.getHostString(), address.getPort());
+                workers.add(new Worker(address.toString(), socket.getInputStream(), socket.getOutputStream(), socket));
+            }
+        } catch (IOException e) {
+            closeAll(workers);
+            throw e;
+        }
+        return new ShardCoordinator(workers);
+    }
+
+    /**
+     * Properties that select the mode of Main or write to stdout must not be passed on
+     */
+    private static boolean isSolverProperty(String property) {
+        return !property.startsWith("maxsat.serve") && !property.startsWith("maxsat.workers")
+                && !property.equals("maxsat.sweep") && !property.equals("maxsat.portfolio")
+                && !property.startsWith("maxsat.metrics");
+    }
+
+    private static void stop(Process process) {
+        try {
+            if (!process.waitFor(WORKER_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of workers that are still usable
+     */
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Runs an algorithm on all workers
+     *
+     * @param formula     the equation to solve
+     * @param algorithm   the algorithm, see {@link SolveService}
+     * @param repetitions how often to run the algorithm, ignored by the derandomised algorithms
+     * @param seed        the seed all shard seeds are derived from
+     * @param slope       the slope of pi(x) = slope * x + offset for Algorithm B
+     * @param offset      the offset of pi
+     * @param pa          the probability pa for Algorithm C_pa
+     * @return the merged summary of all shards
+     * @throws IOException if a worker can't be reached or sends an invalid answer, that worker is closed and removed
+     */
+    public RepetitionSummary run(CnfFormula formula, String algorithm, int repetitions, long seed,
+                                 double slope, double offset, double pa) throws IOException {
+        if (!SolveService.isAlgorithm(algorithm)) {
+            throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        }
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("Invalid number of repetitions " + repetitions);
+        }
+        if (workers.isEmpty()) {
+            throw new IllegalStateException("All workers failed and were closed");
+        }
+        boolean derandomised = algorithm.endsWith("_derandomised");
+        int shards = derandomised ? 1 : (repetitions + SHARD_SIZE - 1) / SHARD_SIZE;
+        long[] shardSeeds = new long[shards];
+        var seeds = new SplittableRandom(seed);
+        for (int s = 0; s < shards; ++s) {
+            shardSeeds[s] = seeds.nextLong();
+        }
+
+        var summaries = new RepetitionSummary[shards];
+        var nextShard = new AtomicInteger();
+        List<Worker> activeWorkers = workers.subList(0, Math.min(workers.size(), shards));
+        ExecutorService executor = Executors.newFixedThreadPool(activeWorkers.size());
+        Throwable failure = null;
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Worker worker : activeWorkers) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        worker.send(formula);
+                        int shard;
+                        while ((shard = nextShard.getAndIncrement()) < shards) {
+                            int shardRepetitions = derandomised ? 1
+                                    : Math.min(SHARD_SIZE, repetitions - shard * SHARD_SIZE);
+                            summaries[shard] = worker.solve(algorithm, shardSeeds[shard], shardRepetitions,
+                                    slope, offset, pa);
+                        }
+                        return null;
+                    } catch (IOException | RuntimeException e) {
+                        // The other workers finish their current shard and don't take new ones
+                        nextShard.set(shards);
+                        // Only a well-formed error answer leaves the stream at the start of the next answer
+                        if (!(e instanceof IllegalStateException)) {
+                            worker.broken = true;
+                            try {
+                                worker.close();
+                            } catch (IOException closeFailure) {
+                                e.addSuppressed(closeFailure);
+                            }
+                        }
+                        throw e;
+                    }
+                }));
+            }
+            // Wait for all workers, so none of them is still busy when the next run starts
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the workers", e);
+        } finally {
+            executor.shutdown();
+            workers.removeIf(worker -> worker.broken);
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException("A worker failed", failure);
+        }
+
+        var summary = new RepetitionSummary();
+        for (RepetitionSummary shardSummary : summaries) {
+            summary.merge(shardSummary);
+        }
+        return summary;
+    }
+
+    /**
+     * Stops local workers and closes the connections to remote workers
+     */
+    @Override
+    public void close() throws IOException {
+        closeAll(workers);
+    }
+
+    private static void closeAll(List<Worker> workers) throws IOException {
+        IOException failure = null;
+        for (Worker worker : workers) {
+            try {
+                worker.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
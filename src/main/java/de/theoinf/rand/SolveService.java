@@ -0,0 +1,243 @@
+package de.theoinf.rand;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+/**
+ * Solves equations sent by other processes, so the native libraries are loaded once, the JIT stays warm and the
+ * LP cache is kept across requests. Requests are read from stdin (answers on stdout) or from connections to a
+ * local socket. Every connection can send any number of requests and gets the answers in the same order.
+ * <p>
+ * A request is:
+ * <pre>
+ *     int    magic ("MSR1")
+ *     UTF    algorithm (A, B, C_all, C_pa, A_derandomised or B_derandomised)
+ *     long   seed
+ *     int    repetitions (ignored by the derandomised algorithms)
+ *     double slope and double offset of pi(x) = slope * x + offset
+ *     double pa
+ *     the equation (see {@link FormulaCodec})
+ * </pre>
+ * The answer is:
+ * <pre>
+ *     int    magic ("MSA1")
+ *     byte   0 if solved, 1 if the request is invalid or solving failed
+ *     if solved:
+ *         long   satisfied weight of the best assignment
+ *         double average satisfied weight of all repetitions
+ *         int    n
+ *         long   the best assignment, 64 variables per long, bit i % 64 of long i / 64 is x(i+1)
+ *     otherwise:
+ *         UTF    the error message
+ * </pre>
+ * Workers of a {@link ShardCoordinator} send the equation only once per connection and get mergeable summaries:
+ * <pre>
+ *     int    magic ("MSF1")
+ *     the equation (see {@link FormulaCodec}), used by all following shard requests of the connection
+ * </pre>
+ * is answered with the magic and byte 0, and
+ * <pre>
+ *     int    magic ("MSS1")
+ *     UTF    algorithm, long seed, int repetitions, double slope, double offset and double pa as above
+ * </pre>
+ * is answered with the magic and byte 0 followed by the summary (see {@link RepetitionSummary#write}), or byte 1 and
+ * the error message.
+ * <p>
+ * A connection is closed after a request that can't be read.
+ */
+public class SolveService {
+    private static final int REQUEST_MAGIC = 0x4D535231; // "MSR1"
+    static final int FORMULA_MAGIC = 0x4D534631; // "MSF1"
+    static final int SHARD_MAGIC = 0x4D535331; // "MSS1"
+    static final int ANSWER_MAGIC = 0x4D534131; // "MSA1"
+    private static final int MAX_MESSAGE_LENGTH = 16 * 1024;
+
+    private static final Map<String, Function<MaxSatParameters, MaxSatBatchResult>> BATCHED_ALGORITHMS = Map.of(
+            "A", RandomisedMaxSATApproximationAlgorithms::probabilisticRandomisedBatch,
+            "B", RandomisedMaxSATApproximationAlgorithms::randomisedRoundingBatch);
+    private static final Map<String, SamplingAlgorithm> ALGORITHMS = Map.of(
+            "C_all", RandomisedMaxSATApproximationAlgorithms::algorithmC_all,
+            "C_pa", RandomisedMaxSATApproximationAlgorithms::algorithmC_pa);
+    private static final Map<String, Function<MaxSatParameters, MaxSatResult>> DERANDOMISED_ALGORITHMS = Map.of(
+            "A_derandomised", RandomisedMaxSATApproximationAlgorithms::probabilisticDerandomised,
+            "B_derandomised", RandomisedMaxSATApproximationAlgorithms::randomisedRoundingDerandomised);
+
+    private final RepetitionRunner runner;
+
+    /**
+     * @param runner runs the repetitions of all requests
+     */
+    public SolveService(RepetitionRunner runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * Answers requests from stdin on stdout until stdin is closed
+     */
+    public void serveStandardStreams() throws IOException {
+        ILPSolver.loadNativeLibraries();
+        serve(System.in, System.out);
+    }
+
+    /**
+     * Accepts connections on the loopback address until the process is stopped. Every connection is served by its
+     * own thread.
+     *
+     * @param port the port to listen on
+     */
+    public void serveSocket(int port) throws IOException {
+        serveSocket(port, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Accepts connections on the given address until the process is stopped, e.g. for a {@link ShardCoordinator} on
+     * another host. The service has no authentication, so only bind to addresses of a trusted network.
+     *
+     * @param port        the port to listen on
+     * @param bindAddress the address to listen on
+     */
+    public void serveSocket(int port, InetAddress bindAddress) throws IOException {
+        ILPSolver.loadNativeLibraries();
+        try (var serverSocket = new ServerSocket(port, 50, bindAddress)) {
+            System.err.printf("Solve service listening on %s%n", serverSocket.getLocalSocketAddress());
+            int connections = 0;
+            while (true) {
+                Socket socket = serverSocket.accept();
+                var thread = new Thread(() -> {
+                    try (socket) {
+                        serve(socket.getInputStream(), socket.getOutputStream());
+                    } catch (IOException e) {
+                        System.err.printf("Closed connection %s: %s%n", socket.getRemoteSocketAddress(), e.getMessage());
+                    }
+                }, "solve-connection-" + ++connections);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Answers requests until the input ends
+     *
+     * @param in  the input to read the requests from
+     * @param out the output to write the answers to
+     * @throws IOException if a request can't be read or an answer can't be written
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        var input = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        var output = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        // The equation of the shard requests of this connection
+        CnfFormula shardFormula = null;
+        while (true) {
+            int magic;
+            try {
+                magic = input.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (magic == FORMULA_MAGIC) {
+                shardFormula = FormulaCodec.read(input);
+                output.writeInt(ANSWER_MAGIC);
+                output.writeByte(0);
+                output.flush();
+                continue;
+            }
+            if (magic != REQUEST_MAGIC && magic != SHARD_MAGIC) {
+                throw new IOException("Invalid request magic " + Integer.toHexString(magic));
+            }
+            String algorithm = input.readUTF();
+            long seed = input.readLong();
+            int repetitions = input.readInt();
+            double slope = input.readDouble();
+            double offset = input.readDouble();
+            double pa = input.readDouble();
+            CnfFormula formula = magic == REQUEST_MAGIC ? FormulaCodec.read(input) : shardFormula;
+
+            output.writeInt(ANSWER_MAGIC);
+            try {
+                if (formula == null) {
+                    throw new IllegalArgumentException("No equation was sent before the shard request");
+                }
+                DoubleUnaryOperator pi = x -> slope * x + offset;
+                RepetitionSummary summary = solve(runner, algorithm, formula, seed, repetitions, pi, pa);
+                if (magic == SHARD_MAGIC) {
+                    output.writeByte(0);
+                    summary.write(output);
+                } else {
+                    writeResult(output, summary);
+                }
+            } catch (RuntimeException e) {
+                // Invalid parameters or a failed solver only fail this request
+                output.writeByte(1);
+                writeMessage(output, e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+            output.flush();
+        }
+    }
+
+    /**
+     * @return true if the algorithm is one of the names accepted by {@link #solve}
+     */
+    static boolean isAlgorithm(String algorithm) {
+        return DERANDOMISED_ALGORITHMS.containsKey(algorithm) || BATCHED_ALGORITHMS.containsKey(algorithm)
+                || ALGORITHMS.containsKey(algorithm);
+    }
+
+    /**
+     * Runs an algorithm by its name in requests, also used by {@link SweepRunner}
+     */
+    static RepetitionSummary solve(RepetitionRunner runner, String algorithm, CnfFormula formula, long seed,
+                                   int repetitions, DoubleUnaryOperator pi, double pa) {
+        if (DERANDOMISED_ALGORITHMS.containsKey(algorithm)) {
+            var summary = new RepetitionSummary();
+            summary.add(DERANDOMISED_ALGORITHMS.get(algorithm).apply(new MaxSatParameters(formula, seed, pi, pa)));
+            return summary;
+        }
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("Invalid number of repetitions " + repetitions);
+        }
+        if (BATCHED_ALGORITHMS.containsKey(algorithm)) {
+            return runner.runBatched(Metrics.timed("algorithm." + algorithm, BATCHED_ALGORITHMS.get(algorithm)),
+                    repetitions, seed, formula, pi);
+        }
+        if (ALGORITHMS.containsKey(algorithm)) {
+            return runner.runSampling(Metrics.timedSampling("algorithm." + algorithm, ALGORITHMS.get(algorithm)),
+                    repetitions, seed, formula, pi, pa);
+        }
+        throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+    }
+
+    private static void writeResult(DataOutputStream output, RepetitionSummary summary) throws IOException {
+        MaxSatResult best = summary.getBestResult();
+        output.writeByte(0);
+        output.writeLong(best.getSatisfiedWeight());
+        output.writeDouble(summary.getAverageWeight());
+        output.writeInt(best.getN());
+        // The packed assignment already has the wire layout
+        for (long word : best.getWords()) {
+            output.writeLong(word);
+        }
+    }
+
+    private static void writeMessage(DataOutputStream output, String message) throws IOException {
+        String text = message;
+        // writeUTF is limited to 64 KiB of modified UTF-8
+        if (text.getBytes(StandardCharsets.UTF_8).length > MAX_MESSAGE_LENGTH) {
+            text = text.substring(0, MAX_MESSAGE_LENGTH / 4);
+        }
+        output.writeUTF(text);
+    }
+}
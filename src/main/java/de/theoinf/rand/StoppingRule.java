@@ -0,0 +1,83 @@
+package de.theoinf.rand;
+
+/**
+ * Decides when an adaptive run of {@link RepetitionRunner} has done enough repetitions. The run stops at the
+ * maximum number of repetitions or as soon as one of the enabled criteria is met:
+ * <ul>
+ *     <li>the 95% confidence interval of the mean satisfied weight is at most {@code targetWidth} wide</li>
+ *     <li>the best result reaches {@code upperBound}, e.g. the bound of the relaxed linear program</li>
+ *     <li>the best result hasn't improved for {@code patience} repetitions</li>
+ * </ul>
+ * The criteria are checked after every block of repetitions, see {@link RepetitionRunner}.
+ */
+public class StoppingRule {
+    // The 97.5% quantile of the standard normal distribution for a two-sided 95% confidence interval
+    private static final double Z_95 = 1.959964;
+
+    /**
+     * Why an adaptive run stopped
+     */
+    public enum Reason {
+        MAX_REPETITIONS,
+        CONFIDENCE_INTERVAL,
+        UPPER_BOUND,
+        NO_IMPROVEMENT
+    }
+
+    private final int maxRepetitions;
+    private final double targetWidth;
+    private final long upperBound;
+    private final int patience;
+
+    /**
+     * @param maxRepetitions the maximum number of repetitions
+     * @param targetWidth    the width of the confidence interval to stop at, 0 to disable
+     * @param upperBound     the satisfied weight to stop at, Long.MAX_VALUE to disable
+     * @param patience       the number of repetitions without improvement to stop after, 0 to disable
+     */
+    public StoppingRule(int maxRepetitions, double targetWidth, long upperBound, int patience) {
+        if (maxRepetitions < 1 || targetWidth < 0 || patience < 0) {
+            throw new IllegalArgumentException("Invalid stopping rule: maxRepetitions=" + maxRepetitions
+                    + ", targetWidth=" + targetWidth + ", patience=" + patience);
+        }
+        this.maxRepetitions = maxRepetitions;
+        this.targetWidth = targetWidth;
+        this.upperBound = upperBound;
+        this.patience = patience;
+    }
+
+    /**
+     * @param repetitions the number of repetitions
+     * @return a rule that always runs exactly the given number of repetitions
+     */
+    public static StoppingRule fixed(int repetitions) {
+        return new StoppingRule(repetitions, 0.0, Long.MAX_VALUE, 0);
+    }
+
+    public int getMaxRepetitions() {
+        return maxRepetitions;
+    }
+
+    /**
+     * @param summary                    the summary of all repetitions so far
+     * @param repetitionsSinceImprovement the number of repetitions since the best result last improved
+     * @return the reason to stop or null to continue
+     */
+    public Reason check(RepetitionSummary summary, int repetitionsSinceImprovement) {
+        int repetitions = summary.getRepetitions();
+        if (repetitions > 0 && summary.getBestResult().getSatisfiedWeight() >= upperBound) {
+            return Reason.UPPER_BOUND;
+        }
+        if (targetWidth > 0 && repetitions >= 2
+                && 2 * Z_95 * summary.getStandardDeviation() / Math.sqrt(repetitions) <= targetWidth) {
+            return Reason.CONFIDENCE_INTERVAL;
+        }
+        if (patience > 0 && repetitionsSinceImprovement >= patience) {
+            return Reason.NO_IMPROVEMENT;
+        }
+        if (repetitions >= maxRepetitions) {
+            return Reason.MAX_REPETITIONS;
+        }
+        return null;
+    }
+}
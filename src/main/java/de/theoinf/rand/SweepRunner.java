@@ -0,0 +1,320 @@
+package de.theoinf.rand;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the algorithms on a grid of random equations and appends the statistics of every grid cell to a CSV file.
+ * <p>
+ * The grid is read from a properties file. Every key is a comma separated list, the grid is the cartesian product:
+ * <pre>
+ *     n = 20, 100
+ *     m = 1000
+ *     k = 3, 2-4                  # k or kMin-kMax literals per clause
+ *     algorithm = A, B, C_all     # the names of {@link SolveService}
+ *     pi = x, 0.5*x+0.25          # optional, default x
+ *     pa = 0.5                    # optional, default 0.5
+ *     seed = 1, 2, 3              # the seed of the equation and of the algorithm
+ *     repetitions = 1000          # optional, default 1000
+ *     parallelism = 4             # optional, the number of cells run at once, default: number of processors
+ *     output = results.csv        # optional, relative to the spec file, default: the spec file name with .csv
+ * </pre>
+ * Cells that only differ in a parameter the algorithm doesn't use (pi for Algorithm A, pa for all but C_pa) are run
+ * once. Every finished cell is appended as one line and forced to disk, so the output file is the checkpoint: a
+ * sweep that is started again skips the cells already in the file and drops a line cut off by a crash.
+ */
+public class SweepRunner {
+    /**
+     * The columns of the output, the first {@link #KEY_COLUMNS} identify a cell
+     */
+    static final String HEADER = "n,m,kMin,kMax,algorithm,pi,pa,seed,repetitions,"
+            + "best,average,standardDeviation,min,max,median,millis";
+    private static final int KEY_COLUMNS = 9;
+    private static final String UNUSED = "-";
+    // slope*x+offset, both parts optional
+    private static final Pattern LINEAR_PI = Pattern.compile("(?:([-+]?[0-9.eE]+)\\*)?x([-+][0-9.eE]+)?");
+
+    private final List<Cell> cells;
+    private final int parallelism;
+    private final Path output;
+
+    /**
+     * A single grid cell
+     */
+    private static final class Cell {
+        private final int n;
+        private final int m;
+        private final int kMin;
+        private final int kMax;
+        private final String algorithm;
+        private final String pi;
+        private final String pa;
+        private final long seed;
+        private final int repetitions;
+
+        private Cell(int n, int m, int kMin, int kMax, String algorithm, String pi, String pa, long seed,
+                     int repetitions) {
+            this.n = n;
+            this.m = m;
+            this.kMin = kMin;
+            this.kMax = kMax;
+            this.algorithm = algorithm;
+            // Unused parameters are normalised, so cells that only differ in them are equal
+            boolean usesPi = !algorithm.equals("A") && !algorithm.equals("A_derandomised");
+            this.pi = usesPi ? pi : UNUSED;
+            this.pa = algorithm.equals("C_pa") ? pa : UNUSED;
+            this.seed = seed;
+            this.repetitions = algorithm.endsWith("_derandomised") ? 1 : repetitions;
+        }
+
+        /**
+         * @return the first {@link #KEY_COLUMNS} columns of the output line
+         */
+        private String key() {
+            return n + "," + m + "," + kMin + "," + kMax + "," + algorithm + "," + pi + "," + pa + "," + seed
+                    + "," + repetitions;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Cell && key().equals(((Cell) other).key());
+        }
+
+        @Override
+        public int hashCode() {
+            return key().hashCode();
+        }
+    }
+
+    private SweepRunner(List<Cell> cells, int parallelism, Path output) {
+        this.cells = cells;
+        this.parallelism = parallelism;
+        this.output = output;
+    }
+
+    /**
+     * @param specFile the properties file describing the grid
+     * @return the sweep described by the file
+     * @throws IOException if the file can't be read
+     */
+    public static SweepRunner load(Path specFile) throws IOException {
+        var spec = new Properties();
+        try (Reader reader = Files.newBufferedReader(specFile)) {
+            spec.load(reader);
+        }
+        for (String key : spec.stringPropertyNames()) {
+            if (!List.of("n", "m", "k", "algorithm", "pi", "pa", "seed", "repetitions", "parallelism", "output")
+                    .contains(key)) {
+                throw new IllegalArgumentException("Unknown sweep parameter " + key + " in " + specFile);
+            }
+        }
+
+        Set<Cell> cells = new LinkedHashSet<>();
+        int repetitions = Integer.parseInt(spec.getProperty("repetitions", "1000").trim());
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("Invalid number of repetitions " + repetitions);
+        }
+        for (String n : values(spec, "n", null)) {
+            for (String m : values(spec, "m", null)) {
+                for (String k : values(spec, "k", null)) {
+                    int dash = k.indexOf('-');
+                    int kMin = Integer.parseInt(dash < 0 ? k : k.substring(0, dash));
+                    int kMax = Integer.parseInt(dash < 0 ? k : k.substring(dash + 1));
+                    for (String algorithm : values(spec, "algorithm", null)) {
+                        if (!SolveService.isAlgorithm(algorithm)) {
+                            throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+                        }
+                        for (String pi : values(spec, "pi", "x")) {
+                            parsePi(pi);
+                            for (String pa : values(spec, "pa", "0.5")) {
+                                Double.parseDouble(pa);
+                                for (String seed : values(spec, "seed", null)) {
+                                    cells.add(new Cell(Integer.parseInt(n), Integer.parseInt(m), kMin, kMax,
+                                            algorithm, pi, pa, Long.parseLong(seed), repetitions));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        int parallelism = Integer.parseInt(spec.getProperty("parallelism",
+                Integer.toString(Runtime.getRuntime().availableProcessors())).trim());
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        String fileName = specFile.getFileName().toString();
+        String defaultOutput = (fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName)
+                + ".csv";
+        Path output = specFile.toAbsolutePath().resolveSibling(spec.getProperty("output", defaultOutput).trim());
+        return new SweepRunner(new ArrayList<>(cells), parallelism, output);
+    }
+
+    private static List<String> values(Properties spec, String key, String defaultValue) {
+        String value = spec.getProperty(key, defaultValue);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing sweep parameter " + key);
+        }
+        List<String> values = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.isBlank()) {
+                values.add(part.trim());
+            }
+        }
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("No values for sweep parameter " + key);
+        }
+        return values;
+    }
+
+    /**
+     * @param pi a linear function like x, 0.5*x+0.25 or x-0.1
+     * @return the function
+     */
+    static DoubleUnaryOperator parsePi(String pi) {
+        Matcher matcher = LINEAR_PI.matcher(pi.replace(" ", ""));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid pi " + pi + ", expected slope*x+offset");
+        }
+        double slope = matcher.group(1) == null ? 1.0 : Double.parseDouble(matcher.group(1));
+        double offset = matcher.group(2) == null ? 0.0 : Double.parseDouble(matcher.group(2));
+        return x -> slope * x + offset;
+    }
+
+    /**
+     * @return the file the results are appended to
+     */
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+     * Runs every cell that isn't in the output file yet. Failed cells are reported on stderr and not written, so they
+     * run again when the sweep is started again.
+     *
+     * @param runner runs the repetitions of every cell
+     * @return the number of failed cells
+     * @throws IOException if the output file can't be read or written
+     */
+    public int run(RepetitionRunner runner) throws IOException {
+        Set<String> finished = readFinishedCells();
+        List<Cell> pending = new ArrayList<>();
+        for (Cell cell : cells) {
+            if (!finished.contains(cell.key())) {
+                pending.add(cell);
+            }
+        }
+        System.out.printf("Sweep of %d cells: %d finished, %d to run on %d threads, results in %s%n",
+                cells.size(), cells.size() - pending.size(), pending.size(), parallelism, output);
+
+        var done = new AtomicInteger();
+        int failed = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (var channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Cell cell : pending) {
+                futures.add(executor.submit(() -> {
+                    String line = runCell(runner, cell);
+                    append(channel, line);
+                    System.out.printf("[%d/%d] %s%n", done.incrementAndGet(), pending.size(), line);
+                    return null;
+                }));
+            }
+            for (int c = 0; c < futures.size(); ++c) {
+                try {
+                    futures.get(c).get();
+                } catch (ExecutionException e) {
+                    ++failed;
+                    System.err.printf("Sweep cell %s failed: %s%n", pending.get(c).key(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the sweep", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    /**
+     * Reads the keys of all complete lines and cuts off a line that was only written in part.
+     * Creates the file with the header if it doesn't exist.
+     */
+    private Set<String> readFinishedCells() throws IOException {
+        Set<String> finished = new HashSet<>();
+        if (!Files.exists(output) || Files.size(output) == 0) {
+            Files.writeString(output, HEADER + "\n", StandardCharsets.UTF_8);
+            return finished;
+        }
+        String content = Files.readString(output, StandardCharsets.UTF_8);
+        int end = content.lastIndexOf('\n') + 1;
+        if (end < content.length()) {
+            try (var channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                channel.truncate(content.substring(0, end).getBytes(StandardCharsets.UTF_8).length);
+            }
+            System.err.printf("Dropped the incomplete last line of %s%n", output);
+        }
+        String[] lines = content.substring(0, end).split("\n");
+        if (!lines[0].equals(HEADER)) {
+            throw new IOException(output + " is not the output of a sweep, its header is " + lines[0]);
+        }
+        for (int i = 1; i < lines.length; ++i) {
+            String[] columns = lines[i].split(",", -1);
+            if (columns.length != HEADER.split(",").length) {
+                throw new IOException("Invalid line " + (i + 1) + " in " + output);
+            }
+            finished.add(String.join(",", List.of(columns).subList(0, KEY_COLUMNS)));
+        }
+        return finished;
+    }
+
+    private static String runCell(RepetitionRunner runner, Cell cell) {
+        long startTime = System.nanoTime();
+        // The cells already run in parallel
+        CnfFormula formula = RandomFormulaGenerator.generate(cell.n, cell.m, cell.kMin, cell.kMax, cell.seed, 1);
+        DoubleUnaryOperator pi = cell.pi.equals(UNUSED) ? null : parsePi(cell.pi);
+        double pa = cell.pa.equals(UNUSED) ? 0.0 : Double.parseDouble(cell.pa);
+        RepetitionSummary summary = SolveService.solve(runner, cell.algorithm, formula, cell.seed, cell.repetitions,
+                pi, pa);
+        long millis = (System.nanoTime() - startTime) / 1000000;
+        return String.format(Locale.ROOT, "%s,%d,%.6f,%.6f,%d,%d,%d,%d", cell.key(),
+                summary.getBestResult().getSatisfiedWeight(), summary.getAverageWeight(),
+                summary.getStandardDeviation(), summary.getMinWeight(), summary.getMaxWeight(),
+                summary.getHistogram().getQuantile(0.5), millis);
+    }
+
+    private static void append(FileChannel channel, String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        // One write per line, so lines of parallel cells never interleave
+        synchronized (channel) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+    }
+}
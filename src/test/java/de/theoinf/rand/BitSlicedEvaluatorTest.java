@@ -0,0 +1,69 @@
+package de.theoinf.rand;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The bit-sliced weights of 64 assignments must equal the scalar satisfied weight of every single assignment
+ */
+class BitSlicedEvaluatorTest {
+
+    @Test
+    void unweightedFormulas() {
+        var random = new SplittableRandom(7);
+        for (int run = 0; run < 100; ++run) {
+            assertMatchesScalarWeights(randomFormula(random, false), random);
+        }
+    }
+
+    @Test
+    void weightedFormulasWithHardClauses() {
+        var random = new SplittableRandom(11);
+        for (int run = 0; run < 100; ++run) {
+            assertMatchesScalarWeights(randomFormula(random, true), random);
+        }
+    }
+
+    private static void assertMatchesScalarWeights(CnfFormula formula, SplittableRandom random) {
+        long[] variableSlices = new long[formula.getN()];
+        for (int i = 0; i < variableSlices.length; ++i) {
+            variableSlices[i] = random.nextLong();
+        }
+        long[] satisfiedWeights = new long[BitSlicedEvaluator.BATCH_SIZE];
+        long total = BitSlicedEvaluator.satisfiedWeights(formula, variableSlices, satisfiedWeights);
+
+        long expectedTotal = 0;
+        for (int s = 0; s < BitSlicedEvaluator.BATCH_SIZE; ++s) {
+            long[] words = BitSlicedEvaluator.extractAssignment(variableSlices, s);
+            long expected = RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(formula, words);
+            assertEquals(expected, satisfiedWeights[s], "assignment " + s);
+            expectedTotal += expected;
+        }
+        assertEquals(expectedTotal, total);
+    }
+
+    /**
+     * @return an equation with up to 130 variables, so the packed assignments have several words, and clauses
+     * that may be empty or repeat variables
+     */
+    private static CnfFormula randomFormula(SplittableRandom random, boolean weighted) {
+        int n = 1 + random.nextInt(130);
+        var equation = new Integer[random.nextInt(300)][];
+        long[] weights = new long[equation.length];
+        for (int j = 0; j < equation.length; ++j) {
+            equation[j] = new Integer[random.nextInt(6)];
+            for (int i = 0; i < equation[j].length; ++i) {
+                int variable = 1 + random.nextInt(n);
+                equation[j][i] = random.nextBoolean() ? variable : -variable;
+            }
+            weights[j] = random.nextInt(10) == 0 ? CnfFormula.HARD : 1 + random.nextInt(1000);
+        }
+        CnfFormula formula = CnfFormula.fromEquation(equation, n);
+        return weighted
+                ? new CnfFormula(n, formula.getClauseOffsets(), formula.getLiterals(), weights)
+                : formula;
+    }
+}
@@ -0,0 +1,71 @@
+package de.theoinf.rand;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Combining the results of all components must give the same satisfied weight as evaluating the whole equation
+ */
+class ComponentDecompositionTest {
+
+    @Test
+    void componentsWithHardAndEmptyClauses() {
+        // {x1, x2} and {x3, x4} are components, x5 doesn't appear and the empty clause is never true
+        var equation = new Integer[][]{{1, -2}, {3}, {}, {-4, 3}, {2}, {-3}};
+        CnfFormula unweighted = CnfFormula.fromEquation(equation, 5);
+        CnfFormula weighted = new CnfFormula(5, unweighted.getClauseOffsets(), unweighted.getLiterals(),
+                new long[]{4, CnfFormula.HARD, 2, 7, CnfFormula.HARD, 3});
+        assertCombinesAllAssignments(unweighted);
+        assertCombinesAllAssignments(weighted);
+    }
+
+    @Test
+    void randomFormulas() {
+        var random = new SplittableRandom(5);
+        for (int run = 0; run < 300; ++run) {
+            int n = 1 + random.nextInt(9);
+            var equation = new Integer[random.nextInt(10)][];
+            long[] weights = new long[equation.length];
+            for (int j = 0; j < equation.length; ++j) {
+                // Short clauses, so most equations have several components
+                equation[j] = new Integer[random.nextInt(3)];
+                for (int i = 0; i < equation[j].length; ++i) {
+                    int variable = 1 + random.nextInt(n);
+                    equation[j][i] = random.nextBoolean() ? variable : -variable;
+                }
+                weights[j] = random.nextInt(4) == 0 ? CnfFormula.HARD : 1 + random.nextInt(10);
+            }
+            CnfFormula unweighted = CnfFormula.fromEquation(equation, n);
+            CnfFormula weighted = new CnfFormula(n, unweighted.getClauseOffsets(), unweighted.getLiterals(), weights);
+            assertCombinesAllAssignments(unweighted);
+            assertCombinesAllAssignments(weighted);
+        }
+    }
+
+    private static void assertCombinesAllAssignments(CnfFormula formula) {
+        ComponentDecomposition decomposition = ComponentDecomposition.decompose(formula);
+        var results = new MaxSatResult[decomposition.size()];
+        boolean[] assignment = new boolean[formula.getN()];
+        for (int bits = 0; bits < 1 << assignment.length; ++bits) {
+            for (int i = 0; i < assignment.length; ++i) {
+                assignment[i] = (bits >>> i & 1) != 0;
+            }
+            for (int c = 0; c < results.length; ++c) {
+                ComponentDecomposition.Component component = decomposition.getComponents().get(c);
+                boolean[] projected = component.project(assignment);
+                results[c] = new MaxSatResult(
+                        RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(component.getFormula(), projected),
+                        projected);
+            }
+
+            MaxSatResult combined = decomposition.combine(results);
+            assertArrayEquals(assignment, combined.getXValues());
+            assertEquals(RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(formula, assignment),
+                    combined.getSatisfiedWeight());
+        }
+    }
+}
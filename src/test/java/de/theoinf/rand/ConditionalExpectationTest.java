@@ -0,0 +1,80 @@
+package de.theoinf.rand;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The derandomised assignment must reach the expected satisfied weight of the randomised assignment, which is
+ * computed by enumerating all assignments
+ */
+class ConditionalExpectationTest {
+
+    @Test
+    void repeatedLiteral() {
+        // (x2 v !x1) ^ (x1 v x1): counting x1 twice in the second clause would fix x1 = FALSE
+        CnfFormula formula = CnfFormula.fromEquation(new Integer[][]{{2, -1}, {1, 1}});
+        assertReachesExpectation(formula, new double[]{0.8, 0.5});
+    }
+
+    @Test
+    void variableAndItsNegation() {
+        CnfFormula formula = CnfFormula.fromEquation(new Integer[][]{{1, -1}, {-1, 2, 1}, {-2}, {2, 2}});
+        assertReachesExpectation(formula, new double[]{0.7, 0.1});
+    }
+
+    @Test
+    void randomFormulasWithRepeatedVariables() {
+        var random = new SplittableRandom(42);
+        for (int run = 0; run < 200; ++run) {
+            int n = 1 + random.nextInt(6);
+            var equation = new Integer[1 + random.nextInt(12)][];
+            long[] weights = new long[equation.length];
+            for (int j = 0; j < equation.length; ++j) {
+                // Clauses longer than n must repeat variables
+                equation[j] = new Integer[1 + random.nextInt(n + 2)];
+                for (int i = 0; i < equation[j].length; ++i) {
+                    int variable = 1 + random.nextInt(n);
+                    equation[j][i] = random.nextBoolean() ? variable : -variable;
+                }
+                weights[j] = random.nextInt(8) == 0 ? CnfFormula.HARD : random.nextInt(10);
+            }
+            CnfFormula unweighted = CnfFormula.fromEquation(equation, n);
+            CnfFormula weighted = new CnfFormula(n, unweighted.getClauseOffsets(), unweighted.getLiterals(), weights);
+            double[] probabilities = new double[n];
+            for (int i = 0; i < n; ++i) {
+                probabilities[i] = random.nextDouble();
+            }
+            assertReachesExpectation(unweighted, probabilities);
+            assertReachesExpectation(weighted, probabilities);
+        }
+    }
+
+    private static void assertReachesExpectation(CnfFormula formula, double[] probabilities) {
+        MaxSatResult result = ConditionalExpectation.fixVariables(formula, probabilities);
+
+        assertEquals(RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(formula, result.getXValues()),
+                result.getSatisfiedWeight());
+        double expectation = expectedWeight(formula, probabilities);
+        assertTrue(result.getSatisfiedWeight() >= expectation - 1e-9 * Math.max(1.0, expectation),
+                () -> result.getSatisfiedWeight() + " < E[W] = " + expectation);
+    }
+
+    private static double expectedWeight(CnfFormula formula, double[] probabilities) {
+        int n = formula.getN();
+        double expectation = 0.0;
+        boolean[] variables = new boolean[n];
+        for (int assignment = 0; assignment < 1 << n; ++assignment) {
+            double probability = 1.0;
+            for (int i = 0; i < n; ++i) {
+                variables[i] = (assignment >>> i & 1) != 0;
+                probability *= variables[i] ? probabilities[i] : 1.0 - probabilities[i];
+            }
+            expectation += probability * RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(formula, variables);
+        }
+        return expectation;
+    }
+}
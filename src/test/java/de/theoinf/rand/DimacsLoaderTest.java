@@ -0,0 +1,94 @@
+package de.theoinf.rand;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A p-line that follows a comment block ending exactly at a window or read boundary must still be parsed as header
+ */
+class DimacsLoaderTest {
+    // Old .wcnf format: weight 10 == top is hard
+    private static final String WEIGHTED_BODY = "p wcnf 3 2 10\n10 1 -2 0\n3 2 0\n";
+
+    @Test
+    void commentsEndingAtTheMappedWindowBoundary(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("boundary.wcnf");
+        Files.write(file, (commentsOfLength(DimacsLoader.WINDOW_SIZE) + WEIGHTED_BODY)
+                .getBytes(StandardCharsets.US_ASCII));
+
+        assertWeightedEquation(DimacsLoader.load(file, 1));
+    }
+
+    @Test
+    void commentsEndingAtAStreamReadBoundary() throws IOException {
+        String comments = commentsOfLength(4096);
+        byte[] bytes = (comments + WEIGHTED_BODY).getBytes(StandardCharsets.US_ASCII);
+
+        assertWeightedEquation(DimacsLoader.loadStream(new ChunkedInputStream(bytes, comments.length()), true));
+    }
+
+    private static void assertWeightedEquation(CnfFormula formula) {
+        // n comes from the p-line, the clauses only use x1 and x2
+        assertEquals(3, formula.getN());
+        assertEquals(2, formula.getM());
+        assertTrue(formula.isHard(0));
+        assertArrayEquals(new long[]{CnfFormula.HARD, 3}, formula.getWeights());
+    }
+
+    /**
+     * @return comment lines of exactly the given length, ending with a line break
+     */
+    private static String commentsOfLength(int length) {
+        var comments = new StringBuilder(length);
+        while (length - comments.length() >= 80) {
+            comments.append('c').append(" ".repeat(78)).append('\n');
+        }
+        int rest = length - comments.length();
+        if (rest >= 2) {
+            comments.append('c').append(" ".repeat(rest - 2)).append('\n');
+        } else if (rest == 1) {
+            // An empty line is skipped like a comment
+            comments.append('\n');
+        }
+        return comments.toString();
+    }
+
+    /**
+     * Returns the bytes up to the boundary in the first reads and the rest in the following reads
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        private final ByteArrayInputStream bytes;
+        private int untilBoundary;
+
+        private ChunkedInputStream(byte[] bytes, int boundary) {
+            this.bytes = new ByteArrayInputStream(bytes);
+            this.untilBoundary = boundary;
+        }
+
+        @Override
+        public int read() {
+            return bytes.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            int chunk = untilBoundary > 0 ? Math.min(length, untilBoundary) : length;
+            int read = bytes.read(buffer, offset, chunk);
+            if (read > 0 && untilBoundary > 0) {
+                untilBoundary -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.theoinf.rand;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Restoring an assignment of the simplified equation must keep its satisfied weight, and the best satisfied weight
+ * must stay the same. Both are checked by enumerating all assignments.
+ */
+class PreprocessorTest {
+
+    @Test
+    void duplicatesTautologiesAndPureLiterals() {
+        // x1 and x1 in the first clause, x2 v !x2 in the second, x3 is pure and x4 doesn't appear
+        CnfFormula formula = CnfFormula.fromEquation(new Integer[][]{{1, 1, -2}, {2, -2}, {3, -1}, {-1, 2}, {1}},
+                4);
+        assertRestoresWeights(Preprocessor.preprocess(formula));
+    }
+
+    @Test
+    void randomFormulas() {
+        var random = new SplittableRandom(3);
+        for (int run = 0; run < 300; ++run) {
+            int n = 1 + random.nextInt(8);
+            var equation = new Integer[random.nextInt(14)][];
+            long[] weights = new long[equation.length];
+            for (int j = 0; j < equation.length; ++j) {
+                equation[j] = new Integer[1 + random.nextInt(4)];
+                for (int i = 0; i < equation[j].length; ++i) {
+                    int variable = 1 + random.nextInt(n);
+                    equation[j][i] = random.nextBoolean() ? variable : -variable;
+                }
+                weights[j] = random.nextInt(6) == 0 ? CnfFormula.HARD : 1 + random.nextInt(10);
+            }
+            CnfFormula unweighted = CnfFormula.fromEquation(equation, n);
+            CnfFormula weighted = new CnfFormula(n, unweighted.getClauseOffsets(), unweighted.getLiterals(), weights);
+            assertRestoresWeights(Preprocessor.preprocess(unweighted));
+            assertRestoresWeights(Preprocessor.preprocess(weighted));
+        }
+    }
+
+    private static void assertRestoresWeights(PreprocessedFormula preprocessed) {
+        CnfFormula original = preprocessed.getOriginal();
+        CnfFormula simplified = preprocessed.getFormula();
+
+        long bestSimplified = Long.MIN_VALUE;
+        boolean[] assignment = new boolean[simplified.getN()];
+        for (int bits = 0; bits < 1 << assignment.length; ++bits) {
+            for (int i = 0; i < assignment.length; ++i) {
+                assignment[i] = (bits >>> i & 1) != 0;
+            }
+            long weight = RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(simplified, assignment);
+            MaxSatResult restored = preprocessed.restore(new MaxSatResult(weight, assignment));
+            assertEquals(RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(original, restored.getXValues()),
+                    restored.getSatisfiedWeight());
+            bestSimplified = Math.max(bestSimplified, restored.getSatisfiedWeight());
+        }
+
+        assertEquals(bestWeight(original), bestSimplified);
+    }
+
+    private static long bestWeight(CnfFormula formula) {
+        long best = Long.MIN_VALUE;
+        boolean[] assignment = new boolean[formula.getN()];
+        for (int bits = 0; bits < 1 << assignment.length; ++bits) {
+            for (int i = 0; i < assignment.length; ++i) {
+                assignment[i] = (bits >>> i & 1) != 0;
+            }
+            best = Math.max(best, RandomisedMaxSATApproximationAlgorithms.satisfiedWeight(formula, assignment));
+        }
+        return best;
+    }
+}